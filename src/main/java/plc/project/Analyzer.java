@@ -63,16 +63,18 @@ public final class Analyzer implements Ast.Visitor<Void> {
   List<Environment.Type> param= new ArrayList<>();
         try {
             scope = new Scope(scope);
-            if(ast.getReturnTypeName().isPresent()){
-                scope.defineVariable("return","return", Environment.getType(ast.getReturnTypeName().get()), true, Environment.NIL);}
-            else{
-                scope.defineVariable("return","return",Environment.Type.NIL,true,Environment.NIL);
+            function = ast;
+            //the parameters take the first slots of the function's scope, in order
+            for (int i = 0; i < ast.getParameters().size(); i++) {
+                String name = ast.getParameters().get(i);
+                scope.defineVariable(name, name, Environment.getType(ast.getParameterTypeNames().get(i)), true, Environment.NIL);
             }
     for(Ast.Statement statement:ast.getStatements()){
            visit(statement);
     }
         }finally {
             scope = scope.getParent();
+            function = null;
         }
     for(String temp: ast.getParameterTypeNames()){
         param.add(Environment.getType(temp));
@@ -117,6 +119,7 @@ public final class Analyzer implements Ast.Visitor<Void> {
       else{
          throw new RuntimeException();
       }
+      ast.setSlot(scope.getSlot(ast.getName()));
       return null;
     }
 
@@ -222,7 +225,11 @@ public final class Analyzer implements Ast.Visitor<Void> {
     public Void visit(Ast.Statement.Return ast) {
         visit(ast.getValue());
         try {
-            requireAssignable(scope.lookupVariable("return").getType(), ast.getValue().getType());
+            if (function == null) {
+                throw new RuntimeException("Return outside of a function.");
+            }
+            Environment.Type type = function.getReturnTypeName().isPresent() ? Environment.getType(function.getReturnTypeName().get()) : Environment.Type.NIL;
+            requireAssignable(type, ast.getValue().getType());
         }catch (RuntimeException exception) {
             throw new RuntimeException(exception);
         }
@@ -267,6 +274,7 @@ public final class Analyzer implements Ast.Visitor<Void> {
         }catch (RuntimeException exception) {
             throw new RuntimeException(exception);
         }
+        ast.setType(ast.getExpression().getType());
         return null;
     }
 
@@ -332,8 +340,14 @@ public final class Analyzer implements Ast.Visitor<Void> {
             }
 
             ast.setVariable(scope.lookupVariable(ast.getName()));
-
-
+            //the variable is defined, so one of the scopes up from here has a slot for it
+            Scope defining = scope;
+            int depth = 0;
+            while (defining.getSlot(ast.getName()) < 0) {
+                defining = defining.getParent();
+                depth++;
+            }
+            ast.setAddress(depth, defining.getSlot(ast.getName()));
 
         return null;
     }
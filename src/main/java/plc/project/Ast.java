@@ -4,6 +4,7 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.function.Supplier;
 
 /**
  * See the Parser assignment specification for specific notes on each AST class
@@ -123,9 +124,10 @@ public abstract class Ast {
         private final List<String> parameters;
         private final List<String> parameterTypeNames;
         private final Optional<String> returnTypeName;
-        private final List<Statement> statements;
+        private List<Statement> statements;
+        private Supplier<List<Statement>> body;
         private Environment.Function function = null;
-        
+
         public Function(String name, List<String> parameters, List<Statement> statements) {
             this(name, parameters, new ArrayList<>(), Optional.of("Any"), statements);
             for (int i = 0; i < parameters.size(); i++) {
@@ -142,6 +144,19 @@ public abstract class Ast {
             this.statements = statements;
         }
 
+        /**
+         * Creates a function whose statements are only created by {@code body}
+         * when {@link #getStatements()} is first called, such as by a {@link
+         * Parser} skipping function bodies. Any {@link ParseException} in the
+         * body is thrown from there, and so also from {@link #equals(Object)},
+         * which compares the statements. {@link #toString()} doesn't create
+         * them, so it never throws.
+         */
+        public Function(String name, List<String> parameters, List<String> parameterTypeNames, Optional<String> returnTypeName, Supplier<List<Statement>> body) {
+            this(name, parameters, parameterTypeNames, returnTypeName, (List<Statement>) null);
+            this.body = body;
+        }
+
         public String getName() {
             return name;
         }
@@ -159,9 +174,21 @@ public abstract class Ast {
         }
 
         public List<Statement> getStatements() {
+            if (statements == null) {
+                statements = body.get();
+                body = null;
+            }
             return statements;
         }
 
+        /**
+         * Returns true if the statements have been created, which is only
+         * false for a function with a body that hasn't been accessed yet.
+         */
+        public boolean isMaterialized() {
+            return statements != null;
+        }
+
         public Environment.Function getFunction() {
             if (function == null) {
                 throw new IllegalStateException("function is uninitialized");
@@ -181,7 +208,7 @@ public abstract class Ast {
                     parameters.equals(((Ast.Function) obj).parameters) &&
                     parameterTypeNames.equals(((Ast.Function) obj).parameterTypeNames) &&
                     returnTypeName.equals(((Ast.Function) obj).returnTypeName) &&
-                    statements.equals(((Ast.Function) obj).statements) &&
+                    getStatements().equals(((Ast.Function) obj).getStatements()) &&
                     Objects.equals(function, ((Ast.Function) obj).function);
         }
 
@@ -193,7 +220,7 @@ public abstract class Ast {
                     ", parameters=" + parameters +
                     ", parameterTypeNames=" + parameterTypeNames +
                     ", returnTypeName='" + returnTypeName + '\'' +
-                    ", statements=" + statements +
+                    ", statements=" + (isMaterialized() ? statements : "<unparsed>") +
                     ", function=" + function +
                     '}';
         }
@@ -235,6 +262,7 @@ public abstract class Ast {
             private final Optional<String> typeName;
             private Optional<Ast.Expression> value;
             private Environment.Variable variable = null;
+            private int slot = -1;
 
             public Declaration(String name, Optional<Ast.Expression> value) {
                 this(name, Optional.empty(), value);
@@ -268,6 +296,22 @@ public abstract class Ast {
             public void setVariable(Environment.Variable variable) {
                 this.variable = variable;
             }
+
+            /**
+             * Returns the slot of the variable in the scope it is declared in,
+             * as resolved by the {@link Analyzer} (see {@link
+             * Scope#getSlot(String)}).
+             */
+            public int getSlot() {
+                if (slot < 0) {
+                    throw new IllegalStateException("slot is uninitialized");
+                }
+                return slot;
+            }
+
+            public void setSlot(int slot) {
+                this.slot = slot;
+            }
             
             
             @Override
@@ -502,6 +546,12 @@ public abstract class Ast {
 
     }
 
+    /**
+     * Expressions hash by structure, ignoring what the {@link Analyzer} sets,
+     * so that a {@link Parser} can share equal ones. Literals, groups and
+     * binaries memoize their hash and compare it before their children, so
+     * shared (or unequal) subtrees are compared in constant time.
+     */
     public static abstract class Expression extends Ast {
 
         public abstract Environment.Type getType();
@@ -510,7 +560,8 @@ public abstract class Ast {
 
             private final Object literal;
             private Environment.Type type = null;
-            
+            private int hash = 0;
+
             public Literal(Object literal) {
                 this.literal = literal;
             }
@@ -535,11 +586,19 @@ public abstract class Ast {
 
             @Override
             public boolean equals(Object obj) {
-                return obj instanceof Literal &&
+                return obj == this || obj instanceof Literal &&
                         Objects.equals(literal, ((Literal) obj).literal) &&
                         Objects.equals(type, ((Literal) obj).type);
             }
 
+            @Override
+            public int hashCode() {
+                if (hash == 0) {
+                    hash = Objects.hashCode(literal) | 1;
+                }
+                return hash;
+            }
+
             @Override
             public String toString() {
                 return "Ast.Expression.Literal{" +
@@ -554,6 +613,7 @@ public abstract class Ast {
 
             private final Ast.Expression expression;
             private Environment.Type type = null;
+            private int hash = 0;
 
             public Group(Ast.Expression expression) {
                 this.expression = expression;
@@ -578,11 +638,20 @@ public abstract class Ast {
 
             @Override
             public boolean equals(Object obj) {
-                return obj instanceof Group &&
+                return obj == this || obj instanceof Group &&
+                        hashCode() == obj.hashCode() &&
                         expression.equals(((Group) obj).expression) &&
                         Objects.equals(type, ((Group) obj).type);
             }
 
+            @Override
+            public int hashCode() {
+                if (hash == 0) {
+                    hash = (31 * expression.hashCode()) | 1;
+                }
+                return hash;
+            }
+
 
             @Override
             public String toString() {
@@ -600,6 +669,7 @@ public abstract class Ast {
             private final Ast.Expression left;
             private final Ast.Expression right;
             private Environment.Type type = null;
+            private int hash = 0;
 
             public Binary(String operator, Ast.Expression left, Ast.Expression right) {
                 this.operator = operator;
@@ -633,13 +703,22 @@ public abstract class Ast {
 
             @Override
             public boolean equals(Object obj) {
-                return obj instanceof Binary &&
+                return obj == this || obj instanceof Binary &&
+                        hashCode() == obj.hashCode() &&
                         operator.equals(((Binary) obj).operator) &&
                         left.equals(((Binary) obj).left) &&
                         right.equals(((Binary) obj).right) &&
                         Objects.equals(type, ((Binary) obj).type);
             }
 
+            @Override
+            public int hashCode() {
+                if (hash == 0) {
+                    hash = Objects.hash(operator, left, right) | 1;
+                }
+                return hash;
+            }
+
             @Override
             public String toString() {
                 return "Ast.Expression.Binary{" +
@@ -658,6 +737,8 @@ public abstract class Ast {
             private final Optional<Ast.Expression> offset;
             private final String name;
             private Environment.Variable variable = null;
+            private int depth = -1;
+            private int slot = -1;
 
             public Access(Optional<Ast.Expression> offset, String name) {
                 this.offset = offset;
@@ -683,6 +764,35 @@ public abstract class Ast {
                 this.variable = variable;
             }
 
+            /**
+             * Returns the number of scopes up from this access to the one
+             * defining the variable, as resolved by the {@link Analyzer}. With
+             * {@link #getSlot()}, this lets an execution engine with a frame
+             * per scope find the variable without looking up its name.
+             */
+            public int getDepth() {
+                if (depth < 0) {
+                    throw new IllegalStateException("address is uninitialized");
+                }
+                return depth;
+            }
+
+            /**
+             * Returns the slot of the variable in the scope defining it (see
+             * {@link Scope#getSlot(String)}).
+             */
+            public int getSlot() {
+                if (slot < 0) {
+                    throw new IllegalStateException("address is uninitialized");
+                }
+                return slot;
+            }
+
+            public void setAddress(int depth, int slot) {
+                this.depth = depth;
+                this.slot = slot;
+            }
+
             @Override
             public Environment.Type getType() {
                 return getVariable().getType();
@@ -696,6 +806,11 @@ public abstract class Ast {
                         Objects.equals(variable, ((Access) obj).variable);
             }
 
+            @Override
+            public int hashCode() {
+                return Objects.hash(offset, name);
+            }
+
 
             @Override
             public String toString() {
@@ -751,6 +866,11 @@ public abstract class Ast {
                         Objects.equals(function, ((Ast.Expression.Function) obj).function);
             }
 
+            @Override
+            public int hashCode() {
+                return Objects.hash(name, arguments);
+            }
+
             @Override
             public String toString() {
                 return "Ast.Expression.Function{" +
@@ -795,6 +915,11 @@ public abstract class Ast {
                         Objects.equals(type, ((Ast.Expression.PlcList) obj).type);
             }
 
+            @Override
+            public int hashCode() {
+                return values.hashCode();
+            }
+
             @Override
             public String toString() {
                 return "Ast.Expression.PlcList{" +
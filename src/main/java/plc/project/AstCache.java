@@ -0,0 +1,99 @@
+package plc.project;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Caches parsed sources in a directory, keyed by the SHA-256 hash of their
+ * contents, so an unchanged source is loaded with {@link
+ * AstSerializer#deserialize(byte[])} instead of being lexed and parsed again.
+ * <p>
+ * Entries are written to a temporary file and then moved into place, so a
+ * cache shared by several processes never has a partially written entry.
+ * Entries which can't be read (such as from an older format) are replaced,
+ * and sources nested too deeply to serialize (see {@link
+ * AstSerializer#MAX_DEPTH}) are parsed each time rather than cached.
+ */
+public final class AstCache {
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final Path directory;
+    private int hits = 0;
+    private int misses = 0;
+
+    public AstCache(Path directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Returns the cached source for {@code input}, or otherwise lexes and
+     * parses it and caches the result. Parse errors are thrown as usual and
+     * are not cached.
+     */
+    public Ast.Source parse(String input) throws IOException {
+        Path path = directory.resolve(hash(input) + ".ast");
+        try {
+            Ast.Source source = AstSerializer.deserialize(Files.readAllBytes(path));
+            hits++;
+            return source;
+        } catch (NoSuchFileException | IllegalArgumentException e) {
+            misses++;
+        }
+        Ast.Source source = new Parser(new Lexer(input).lexBuffer()).parseSource();
+        byte[] bytes;
+        try {
+            bytes = AstSerializer.serialize(source);
+        } catch (IllegalArgumentException e) {
+            return source;
+        }
+        Files.createDirectories(directory);
+        Path temporary = Files.createTempFile(directory, null, ".tmp");
+        try {
+            Files.write(temporary, bytes);
+            try {
+                Files.move(temporary, path, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+        return source;
+    }
+
+    public int getHits() {
+        return hits;
+    }
+
+    public int getMisses() {
+        return misses;
+    }
+
+    /**
+     * Returns the hex encoded SHA-256 hash of the UTF-8 bytes of {@code input}.
+     */
+    static String hash(String input) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new AssertionError("SHA-256 is required to be supported.", e);
+        }
+        byte[] bytes = digest.digest(input.getBytes(StandardCharsets.UTF_8));
+        char[] hex = new char[2 * bytes.length];
+        for (int i = 0; i < bytes.length; i++) {
+            hex[2 * i] = HEX[(bytes[i] >> 4) & 0xF];
+            hex[2 * i + 1] = HEX[bytes[i] & 0xF];
+        }
+        return new String(hex);
+    }
+
+}
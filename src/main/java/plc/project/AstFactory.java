@@ -0,0 +1,169 @@
+package plc.project;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.Supplier;
+
+/**
+ * Creates the nodes and lists of the AST for a {@link Parser}. The default
+ * methods simply call the constructors, and {@link Pooled} reuses the lists
+ * the parser fills instead of allocating new ones.
+ * <p>
+ * The parser gets each list it fills from {@link #startList()} and passes it
+ * to exactly one node, whose factory method calls {@link #finishList(List)}
+ * to get the list the node will actually keep.
+ */
+public interface AstFactory {
+
+    /**
+     * A factory which creates every node and list as a new object.
+     */
+    AstFactory DEFAULT = new AstFactory() {};
+
+    /**
+     * Returns a list for the parser to fill.
+     */
+    default <T> List<T> startList() {
+        return new ArrayList<>();
+    }
+
+    /**
+     * Returns the list a node keeps for {@code list}, which was returned by
+     * {@link #startList()} and is not used by the parser afterwards.
+     */
+    default <T> List<T> finishList(List<T> list) {
+        return list;
+    }
+
+    /**
+     * Returns a factory for another parser running concurrently with the one
+     * using this factory, such as when parsing function bodies in parallel.
+     * Stateless factories can return themselves.
+     */
+    default AstFactory fork() {
+        return this;
+    }
+
+    default Ast.Source source(List<Ast.Global> globals, List<Ast.Function> functions) {
+        return new Ast.Source(finishList(globals), finishList(functions));
+    }
+
+    default Ast.Global global(String name, String typeName, boolean mutable, Optional<Ast.Expression> value) {
+        return new Ast.Global(name, typeName, mutable, value);
+    }
+
+    default Ast.Function function(String name, List<String> parameters, List<String> parameterTypeNames, Optional<String> returnTypeName, List<Ast.Statement> statements) {
+        return new Ast.Function(name, finishList(parameters), finishList(parameterTypeNames), returnTypeName, finishList(statements));
+    }
+
+    /**
+     * Creates a function whose body is parsed later, where {@code body}
+     * returns a list which has already been finished.
+     */
+    default Ast.Function function(String name, List<String> parameters, List<String> parameterTypeNames, Optional<String> returnTypeName, Supplier<List<Ast.Statement>> body) {
+        return new Ast.Function(name, finishList(parameters), finishList(parameterTypeNames), returnTypeName, body);
+    }
+
+    default Ast.Statement.Expression expressionStatement(Ast.Expression expression) {
+        return new Ast.Statement.Expression(expression);
+    }
+
+    default Ast.Statement.Declaration declarationStatement(String name, Optional<String> typeName, Optional<Ast.Expression> value) {
+        return new Ast.Statement.Declaration(name, typeName, value);
+    }
+
+    default Ast.Statement.Assignment assignmentStatement(Ast.Expression receiver, Ast.Expression value) {
+        return new Ast.Statement.Assignment(receiver, value);
+    }
+
+    default Ast.Statement.If ifStatement(Ast.Expression condition, List<Ast.Statement> thenStatements, List<Ast.Statement> elseStatements) {
+        return new Ast.Statement.If(condition, finishList(thenStatements), finishList(elseStatements));
+    }
+
+    default Ast.Statement.Switch switchStatement(Ast.Expression condition, List<Ast.Statement.Case> cases) {
+        return new Ast.Statement.Switch(condition, finishList(cases));
+    }
+
+    default Ast.Statement.Case caseStatement(Optional<Ast.Expression> value, List<Ast.Statement> statements) {
+        return new Ast.Statement.Case(value, finishList(statements));
+    }
+
+    default Ast.Statement.While whileStatement(Ast.Expression condition, List<Ast.Statement> statements) {
+        return new Ast.Statement.While(condition, finishList(statements));
+    }
+
+    default Ast.Statement.Return returnStatement(Ast.Expression value) {
+        return new Ast.Statement.Return(value);
+    }
+
+    default Ast.Expression.Literal literal(Object literal) {
+        return new Ast.Expression.Literal(literal);
+    }
+
+    default Ast.Expression.Group group(Ast.Expression expression) {
+        return new Ast.Expression.Group(expression);
+    }
+
+    default Ast.Expression.Binary binary(String operator, Ast.Expression left, Ast.Expression right) {
+        return new Ast.Expression.Binary(operator, left, right);
+    }
+
+    default Ast.Expression.Access access(Optional<Ast.Expression> offset, String name) {
+        return new Ast.Expression.Access(offset, name);
+    }
+
+    default Ast.Expression.Function functionCall(String name, List<Ast.Expression> arguments) {
+        return new Ast.Expression.Function(name, finishList(arguments));
+    }
+
+    default Ast.Expression.PlcList plcList(List<Ast.Expression> values) {
+        return new Ast.Expression.PlcList(finishList(values));
+    }
+
+    /**
+     * A factory for parsing many sources, which keeps the lists the parser
+     * fills and reuses them for the next ones. Nodes keep an immutable copy
+     * of exactly the right size instead, which for an empty list or one or
+     * two elements is a shared list or a single small object. The parser
+     * then no longer allocates a growing array for every list it parses.
+     * <p>
+     * This is not thread safe, so each thread (or concurrently parsed
+     * function body, see {@link #fork()}) needs its own factory.
+     */
+    final class Pooled implements AstFactory {
+
+        private static final int MAX_POOLED = 64;
+        private static final int MAX_CAPACITY = 1024;
+
+        private final Deque<ArrayList<Object>> pool = new ArrayDeque<>();
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public <T> List<T> startList() {
+            ArrayList<Object> list = pool.poll();
+            return (List<T>) (list != null ? list : new ArrayList<>());
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public <T> List<T> finishList(List<T> list) {
+            List<T> copy = List.copyOf(list);
+            //very large lists aren't kept, so a single huge source doesn't hold on to their arrays
+            if (list instanceof ArrayList && list.size() <= MAX_CAPACITY && pool.size() < MAX_POOLED) {
+                list.clear();
+                pool.push((ArrayList<Object>) list);
+            }
+            return copy;
+        }
+
+        @Override
+        public AstFactory fork() {
+            return new Pooled();
+        }
+
+    }
+
+}
@@ -0,0 +1,587 @@
+package plc.project;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Converts an {@link Ast.Source} to and from a compact binary format, so a
+ * parsed source can be stored (see {@link AstCache}) and loaded again without
+ * lexing or parsing it.
+ * <p>
+ * Each node is a tag byte followed by its fields, and lists are prefixed by
+ * their size. Integers are unsigned LEB128 varints and strings are written
+ * once, after which they are referred to by their index in the order they
+ * were first written. Only what the parser creates is stored; variables,
+ * functions and types set by the {@link Analyzer} are not.
+ */
+public final class AstSerializer {
+
+    private static final byte[] MAGIC = {'P', 'L', 'C', 'A'};
+    private static final int VERSION = 2;
+
+    /**
+     * The deepest nesting of nodes which is serialized or deserialized.
+     * Encoding and decoding are recursive, so this keeps deep sources and
+     * corrupt or crafted bytes from overflowing the stack. Chains of binary
+     * operators grouping to the left, which the parser creates without
+     * recursion, are encoded as a single node and so count once.
+     */
+    static final int MAX_DEPTH = 512;
+
+    private static final int NONE = 0;
+    private static final int GLOBAL = 1;
+    private static final int FUNCTION = 2;
+    private static final int EXPRESSION_STATEMENT = 3;
+    private static final int DECLARATION = 4;
+    private static final int ASSIGNMENT = 5;
+    private static final int IF = 6;
+    private static final int SWITCH = 7;
+    private static final int CASE = 8;
+    private static final int WHILE = 9;
+    private static final int RETURN = 10;
+    private static final int NIL = 11;
+    private static final int TRUE = 12;
+    private static final int FALSE = 13;
+    private static final int INTEGER = 14;
+    private static final int DECIMAL = 15;
+    private static final int CHARACTER = 16;
+    private static final int STRING = 17;
+    private static final int GROUP = 18;
+    private static final int BINARY = 19;
+    private static final int ACCESS = 20;
+    private static final int FUNCTION_CALL = 21;
+    private static final int LIST = 22;
+
+    private AstSerializer() {}
+
+    /**
+     * Returns the binary form of {@code source}. Any function bodies which
+     * haven't been parsed yet (see {@link Parser#Parser(List, boolean)}) are
+     * parsed first. Throws an {@link IllegalArgumentException} if the source
+     * is nested deeper than {@link #MAX_DEPTH}.
+     */
+    public static byte[] serialize(Ast.Source source) {
+        Writer writer = new Writer();
+        writer.bytes(MAGIC);
+        writer.varint(VERSION);
+        writer.visit(source);
+        return Arrays.copyOf(writer.bytes, writer.length);
+    }
+
+    /**
+     * Returns the source serialized in {@code bytes}, throwing an {@link
+     * IllegalArgumentException} if they aren't in this version's format.
+     */
+    public static Ast.Source deserialize(byte[] bytes) {
+        Reader reader = new Reader(bytes);
+        try {
+            for (byte b : MAGIC) {
+                if (reader.bytes[reader.index++] != b) {
+                    throw new IllegalArgumentException("Not a serialized AST.");
+                }
+            }
+            if (reader.varint() != VERSION) {
+                throw new IllegalArgumentException("Unsupported serialized AST version.");
+            }
+            Ast.Source source = reader.source();
+            if (reader.index != bytes.length) {
+                throw new IllegalArgumentException("Trailing bytes after serialized AST.");
+            }
+            return source;
+        } catch (IndexOutOfBoundsException | ClassCastException e) {
+            throw new IllegalArgumentException("Malformed serialized AST.", e);
+        }
+    }
+
+    private static final class Writer implements Ast.Visitor<Void> {
+
+        private final Map<String, Integer> strings = new HashMap<>();
+        private byte[] bytes = new byte[1024];
+        private int length = 0;
+        private int depth = 0;
+
+        @Override
+        public Void visit(Ast.Source ast) {
+            varint(ast.getGlobals().size());
+            for (Ast.Global global : ast.getGlobals()) {
+                node(global);
+            }
+            varint(ast.getFunctions().size());
+            for (Ast.Function function : ast.getFunctions()) {
+                node(function);
+            }
+            return null;
+        }
+
+        @Override
+        public Void visit(Ast.Global ast) {
+            varint(GLOBAL);
+            string(ast.getName());
+            string(ast.getTypeName());
+            varint(ast.getMutable() ? 1 : 0);
+            optional(ast.getValue());
+            return null;
+        }
+
+        @Override
+        public Void visit(Ast.Function ast) {
+            varint(FUNCTION);
+            string(ast.getName());
+            varint(ast.getParameters().size());
+            for (String parameter : ast.getParameters()) {
+                string(parameter);
+            }
+            varint(ast.getParameterTypeNames().size());
+            for (String typeName : ast.getParameterTypeNames()) {
+                string(typeName);
+            }
+            string(ast.getReturnTypeName().orElse(null));
+            list(ast.getStatements());
+            return null;
+        }
+
+        @Override
+        public Void visit(Ast.Statement.Expression ast) {
+            varint(EXPRESSION_STATEMENT);
+            node(ast.getExpression());
+            return null;
+        }
+
+        @Override
+        public Void visit(Ast.Statement.Declaration ast) {
+            varint(DECLARATION);
+            string(ast.getName());
+            string(ast.getTypeName().orElse(null));
+            optional(ast.getValue());
+            return null;
+        }
+
+        @Override
+        public Void visit(Ast.Statement.Assignment ast) {
+            varint(ASSIGNMENT);
+            node(ast.getReceiver());
+            node(ast.getValue());
+            return null;
+        }
+
+        @Override
+        public Void visit(Ast.Statement.If ast) {
+            varint(IF);
+            node(ast.getCondition());
+            list(ast.getThenStatements());
+            list(ast.getElseStatements());
+            return null;
+        }
+
+        @Override
+        public Void visit(Ast.Statement.Switch ast) {
+            varint(SWITCH);
+            node(ast.getCondition());
+            list(ast.getCases());
+            return null;
+        }
+
+        @Override
+        public Void visit(Ast.Statement.Case ast) {
+            varint(CASE);
+            optional(ast.getValue());
+            list(ast.getStatements());
+            return null;
+        }
+
+        @Override
+        public Void visit(Ast.Statement.While ast) {
+            varint(WHILE);
+            node(ast.getCondition());
+            list(ast.getStatements());
+            return null;
+        }
+
+        @Override
+        public Void visit(Ast.Statement.Return ast) {
+            varint(RETURN);
+            node(ast.getValue());
+            return null;
+        }
+
+        @Override
+        public Void visit(Ast.Expression.Literal ast) {
+            Object literal = ast.getLiteral();
+            if (literal == null) {
+                varint(NIL);
+            } else if (literal instanceof Boolean) {
+                varint((Boolean) literal ? TRUE : FALSE);
+            } else if (literal instanceof BigInteger) {
+                varint(INTEGER);
+                integer((BigInteger) literal);
+            } else if (literal instanceof BigDecimal) {
+                varint(DECIMAL);
+                varint(zigzag(((BigDecimal) literal).scale()));
+                integer(((BigDecimal) literal).unscaledValue());
+            } else if (literal instanceof Character) {
+                varint(CHARACTER);
+                varint((Character) literal);
+            } else if (literal instanceof String) {
+                varint(STRING);
+                string((String) literal);
+            } else {
+                throw new IllegalArgumentException("Unserializable literal type " + literal.getClass().getName() + ".");
+            }
+            return null;
+        }
+
+        @Override
+        public Void visit(Ast.Expression.Group ast) {
+            varint(GROUP);
+            node(ast.getExpression());
+            return null;
+        }
+
+        @Override
+        public Void visit(Ast.Expression.Binary ast) {
+            //writes the chain of left operands iteratively, as it was parsed
+            List<Ast.Expression.Binary> chain = new ArrayList<>();
+            Ast.Expression left = ast;
+            while (left instanceof Ast.Expression.Binary) {
+                chain.add((Ast.Expression.Binary) left);
+                left = ((Ast.Expression.Binary) left).getLeft();
+            }
+            varint(BINARY);
+            varint(chain.size());
+            node(left);
+            for (int i = chain.size() - 1; i >= 0; i--) {
+                string(chain.get(i).getOperator());
+                node(chain.get(i).getRight());
+            }
+            return null;
+        }
+
+        @Override
+        public Void visit(Ast.Expression.Access ast) {
+            varint(ACCESS);
+            string(ast.getName());
+            optional(ast.getOffset());
+            return null;
+        }
+
+        @Override
+        public Void visit(Ast.Expression.Function ast) {
+            varint(FUNCTION_CALL);
+            string(ast.getName());
+            list(ast.getArguments());
+            return null;
+        }
+
+        @Override
+        public Void visit(Ast.Expression.PlcList ast) {
+            varint(LIST);
+            list(ast.getValues());
+            return null;
+        }
+
+        private void list(List<? extends Ast> asts) {
+            varint(asts.size());
+            for (Ast ast : asts) {
+                node(ast);
+            }
+        }
+
+        private void optional(Optional<Ast.Expression> ast) {
+            if (ast.isPresent()) {
+                node(ast.get());
+            } else {
+                varint(NONE);
+            }
+        }
+
+        private void node(Ast ast) {
+            if (++depth > MAX_DEPTH) {
+                throw new IllegalArgumentException("AST nested deeper than " + MAX_DEPTH + " to serialize.");
+            }
+            try {
+                visit(ast);
+            } finally {
+                depth--;
+            }
+        }
+
+        /**
+         * Writes 0 for {@code null}, 1 followed by the length and UTF-8 bytes
+         * for a new string, or the index of a previous string plus 2.
+         */
+        private void string(String string) {
+            if (string == null) {
+                varint(0);
+                return;
+            }
+            Integer index = strings.putIfAbsent(string, strings.size());
+            if (index != null) {
+                varint(index + 2);
+            } else {
+                byte[] utf8 = string.getBytes(StandardCharsets.UTF_8);
+                varint(1);
+                varint(utf8.length);
+                bytes(utf8);
+            }
+        }
+
+        /**
+         * Writes the two's complement bytes of {@code integer}, prefixed by
+         * their count.
+         */
+        private void integer(BigInteger integer) {
+            if (integer.bitLength() < 64) {
+                long value = integer.longValue();
+                int count = (64 - Long.numberOfLeadingZeros(value ^ (value >> 63))) / 8 + 1;
+                varint(count);
+                ensure(count);
+                for (int i = count - 1; i >= 0; i--) {
+                    bytes[length++] = (byte) (value >> (8 * i));
+                }
+            } else {
+                byte[] twos = integer.toByteArray();
+                varint(twos.length);
+                bytes(twos);
+            }
+        }
+
+        private void varint(int value) {
+            ensure(5);
+            while ((value & ~0x7F) != 0) {
+                bytes[length++] = (byte) (value | 0x80);
+                value >>>= 7;
+            }
+            bytes[length++] = (byte) value;
+        }
+
+        private void bytes(byte[] array) {
+            ensure(array.length);
+            System.arraycopy(array, 0, bytes, length, array.length);
+            length += array.length;
+        }
+
+        private void ensure(int count) {
+            if (length + count > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(2 * bytes.length, length + count));
+            }
+        }
+
+    }
+
+    private static final class Reader {
+
+        private final List<String> strings = new ArrayList<>();
+        private final byte[] bytes;
+        private int index = 0;
+        private int depth = 0;
+
+        private Reader(byte[] bytes) {
+            this.bytes = bytes;
+        }
+
+        private Ast.Source source() {
+            int globalCount = varint();
+            List<Ast.Global> globals = new ArrayList<>(Math.min(globalCount, bytes.length));
+            for (int i = 0; i < globalCount; i++) {
+                globals.add((Ast.Global) ast(varint()));
+            }
+            int functionCount = varint();
+            List<Ast.Function> functions = new ArrayList<>(Math.min(functionCount, bytes.length));
+            for (int i = 0; i < functionCount; i++) {
+                functions.add((Ast.Function) ast(varint()));
+            }
+            return new Ast.Source(globals, functions);
+        }
+
+        private Ast ast(int tag) {
+            if (++depth > MAX_DEPTH) {
+                throw new IllegalArgumentException("Serialized AST nested deeper than " + MAX_DEPTH + ".");
+            }
+            try {
+                return node(tag);
+            } finally {
+                depth--;
+            }
+        }
+
+        private Ast node(int tag) {
+            switch (tag) {
+                case GLOBAL: {
+                    String name = string();
+                    String typeName = string();
+                    boolean mutable = varint() != 0;
+                    return new Ast.Global(name, typeName, mutable, optional());
+                }
+                case FUNCTION: {
+                    String name = string();
+                    List<String> parameters = strings();
+                    List<String> typeNames = strings();
+                    Optional<String> returnTypeName = Optional.ofNullable(string());
+                    return new Ast.Function(name, parameters, typeNames, returnTypeName, list());
+                }
+                case EXPRESSION_STATEMENT:
+                    return new Ast.Statement.Expression(expression());
+                case DECLARATION: {
+                    String name = string();
+                    Optional<String> typeName = Optional.ofNullable(string());
+                    return new Ast.Statement.Declaration(name, typeName, optional());
+                }
+                case ASSIGNMENT: {
+                    Ast.Expression receiver = expression();
+                    return new Ast.Statement.Assignment(receiver, expression());
+                }
+                case IF: {
+                    Ast.Expression condition = expression();
+                    List<Ast.Statement> thenStatements = list();
+                    return new Ast.Statement.If(condition, thenStatements, list());
+                }
+                case SWITCH: {
+                    Ast.Expression condition = expression();
+                    return new Ast.Statement.Switch(condition, list());
+                }
+                case CASE: {
+                    Optional<Ast.Expression> value = optional();
+                    return new Ast.Statement.Case(value, list());
+                }
+                case WHILE: {
+                    Ast.Expression condition = expression();
+                    return new Ast.Statement.While(condition, list());
+                }
+                case RETURN:
+                    return new Ast.Statement.Return(expression());
+                case NIL:
+                    return new Ast.Expression.Literal(null);
+                case TRUE:
+                    return new Ast.Expression.Literal(Boolean.TRUE);
+                case FALSE:
+                    return new Ast.Expression.Literal(Boolean.FALSE);
+                case INTEGER:
+                    return new Ast.Expression.Literal(integer());
+                case DECIMAL: {
+                    int scale = unzigzag(varint());
+                    return new Ast.Expression.Literal(new BigDecimal(integer(), scale));
+                }
+                case CHARACTER:
+                    return new Ast.Expression.Literal((char) varint());
+                case STRING:
+                    return new Ast.Expression.Literal(string());
+                case GROUP:
+                    return new Ast.Expression.Group(expression());
+                case BINARY: {
+                    int count = varint();
+                    if (count <= 0 || count > bytes.length - index) {
+                        throw new IllegalArgumentException("Invalid serialized AST binary chain length " + count + ".");
+                    }
+                    Ast.Expression left = expression();
+                    for (int i = 0; i < count; i++) {
+                        String operator = string();
+                        left = new Ast.Expression.Binary(operator, left, expression());
+                    }
+                    return left;
+                }
+                case ACCESS: {
+                    String name = string();
+                    return new Ast.Expression.Access(optional(), name);
+                }
+                case FUNCTION_CALL: {
+                    String name = string();
+                    return new Ast.Expression.Function(name, list());
+                }
+                case LIST:
+                    return new Ast.Expression.PlcList(list());
+                default:
+                    throw new IllegalArgumentException("Invalid serialized AST tag " + tag + ".");
+            }
+        }
+
+        private Ast.Expression expression() {
+            return (Ast.Expression) ast(varint());
+        }
+
+        private Optional<Ast.Expression> optional() {
+            int tag = varint();
+            return tag == NONE ? Optional.empty() : Optional.of((Ast.Expression) ast(tag));
+        }
+
+        @SuppressWarnings("unchecked")
+        private <T extends Ast> List<T> list() {
+            int size = varint();
+            List<T> asts = new ArrayList<>(Math.min(size, bytes.length));
+            for (int i = 0; i < size; i++) {
+                asts.add((T) ast(varint()));
+            }
+            return asts;
+        }
+
+        private List<String> strings() {
+            int size = varint();
+            List<String> list = new ArrayList<>(Math.min(size, bytes.length));
+            for (int i = 0; i < size; i++) {
+                list.add(string());
+            }
+            return list;
+        }
+
+        private String string() {
+            int reference = varint();
+            if (reference == 0) {
+                return null;
+            } else if (reference > 1) {
+                return strings.get(reference - 2);
+            }
+            int length = varint();
+            if (length < 0 || length > bytes.length - index) {
+                throw new IllegalArgumentException("Invalid serialized AST string length " + length + ".");
+            }
+            String string = new String(bytes, index, length, StandardCharsets.UTF_8);
+            index += length;
+            strings.add(string);
+            return string;
+        }
+
+        private BigInteger integer() {
+            int count = varint();
+            if (count <= 0 || count > bytes.length - index) {
+                throw new IllegalArgumentException("Invalid serialized AST integer length " + count + ".");
+            } else if (count <= 8) {
+                long value = bytes[index++]; //sign extends the first byte
+                for (int i = 1; i < count; i++) {
+                    value = (value << 8) | (bytes[index++] & 0xFF);
+                }
+                return BigInteger.valueOf(value);
+            }
+            BigInteger integer = new BigInteger(Arrays.copyOfRange(bytes, index, index + count));
+            index += count;
+            return integer;
+        }
+
+        private int varint() {
+            int value = 0;
+            for (int shift = 0; shift < 35; shift += 7) {
+                byte b = bytes[index++];
+                value |= (b & 0x7F) << shift;
+                if (b >= 0) {
+                    return value;
+                }
+            }
+            throw new IllegalArgumentException("Invalid serialized AST varint.");
+        }
+
+    }
+
+    private static int zigzag(int value) {
+        return (value << 1) ^ (value >> 31);
+    }
+
+    private static int unzigzag(int value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+}
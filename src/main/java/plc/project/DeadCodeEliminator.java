@@ -0,0 +1,411 @@
+package plc.project;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Removes the code of an AST which has been analyzed by the {@link Analyzer}
+ * that can never run, returning the smaller AST and counting the nodes it
+ * removed (see {@link #getRemoved()}). This is:
+ * <ul>
+ *     <li>the statements of a block after one which never completes, being a
+ *     {@code RETURN}, a {@code WHILE TRUE} or an {@code IF} whose branches
+ *     both never complete,</li>
+ *     <li>a {@code WHILE FALSE},</li>
+ *     <li>the cases of a {@code SWITCH} on a literal which can't match it,
+ *     up to the first case which can (as the {@link Generator} falls through
+ *     the cases after it),</li>
+ *     <li>and the functions which aren't called from {@code main}, directly
+ *     or through other functions, or from the value of a global.</li>
+ * </ul>
+ * Running the {@link Optimizer} first turns more conditions into literals.
+ * Nodes which don't change are returned as they are, and new nodes have the
+ * same functions as those they replace.
+ */
+public final class DeadCodeEliminator implements Ast.Visitor<Ast> {
+
+    private int removed = 0;
+
+    /**
+     * Returns the number of nodes removed by this eliminator, counting each
+     * global, function, statement, case and expression.
+     */
+    public int getRemoved() {
+        return removed;
+    }
+
+    /**
+     * Eliminates the dead code of each function, then removes the functions
+     * which can't be reached. If there's no {@code main} function, all of
+     * them are kept.
+     */
+    @Override
+    public Ast.Source visit(Ast.Source ast) {
+        List<Ast.Function> functions = new ArrayList<>();
+        boolean changed = false;
+        for (Ast.Function function : ast.getFunctions()) {
+            functions.add(visit(function));
+            changed |= functions.get(functions.size() - 1) != function;
+        }
+        Map<String, Ast.Function> declared = new HashMap<>();
+        for (Ast.Function function : functions) {
+            declared.put(signature(function.getName(), function.getParameters().size()), function);
+        }
+        if (declared.containsKey("main/0")) {
+            Walker roots = new Walker();
+            ast.getGlobals().forEach(roots::visit);
+            Deque<String> pending = new ArrayDeque<>(roots.calls);
+            pending.add("main/0");
+            Set<String> reached = new HashSet<>();
+            while (!pending.isEmpty()) {
+                String function = pending.pop();
+                if (reached.add(function) && declared.containsKey(function)) {
+                    Walker walker = new Walker();
+                    walker.visit(declared.get(function));
+                    pending.addAll(walker.calls);
+                }
+            }
+            List<Ast.Function> reachable = new ArrayList<>();
+            for (Ast.Function function : functions) {
+                if (reached.contains(signature(function.getName(), function.getParameters().size()))) {
+                    reachable.add(function);
+                } else {
+                    removed += count(function);
+                    changed = true;
+                }
+            }
+            functions = reachable;
+        }
+        return changed ? new Ast.Source(ast.getGlobals(), functions) : ast;
+    }
+
+    @Override
+    public Ast.Global visit(Ast.Global ast) {
+        return ast;
+    }
+
+    @Override
+    public Ast.Function visit(Ast.Function ast) {
+        List<Ast.Statement> statements = block(ast.getStatements(), false);
+        if (statements == ast.getStatements()) {
+            return ast;
+        }
+        Ast.Function function = new Ast.Function(ast.getName(), ast.getParameters(), ast.getParameterTypeNames(), ast.getReturnTypeName(), statements);
+        function.setFunction(ast.getFunction());
+        return function;
+    }
+
+    @Override
+    public Ast.Statement visit(Ast.Statement.Expression ast) {
+        return ast;
+    }
+
+    @Override
+    public Ast.Statement visit(Ast.Statement.Declaration ast) {
+        return ast;
+    }
+
+    @Override
+    public Ast.Statement visit(Ast.Statement.Assignment ast) {
+        return ast;
+    }
+
+    @Override
+    public Ast.Statement visit(Ast.Statement.If ast) {
+        List<Ast.Statement> thenStatements = block(ast.getThenStatements(), ast.getElseStatements().isEmpty());
+        List<Ast.Statement> elseStatements = block(ast.getElseStatements(), thenStatements.isEmpty());
+        if (thenStatements == ast.getThenStatements() && elseStatements == ast.getElseStatements()) {
+            return ast;
+        }
+        return new Ast.Statement.If(ast.getCondition(), thenStatements, elseStatements);
+    }
+
+    /**
+     * Removes the cases before the first one which can match a literal
+     * condition, or all of them but the default if none can. The cases after
+     * it are kept even if they can't match either, since the {@link
+     * Generator} falls through to them.
+     */
+    @Override
+    public Ast.Statement visit(Ast.Statement.Switch ast) {
+        List<Ast.Statement.Case> cases = new ArrayList<>();
+        boolean changed = false;
+        boolean matched = !(ast.getCondition() instanceof Ast.Expression.Literal)
+                || ((Ast.Expression.Literal) ast.getCondition()).getLiteral() == null;
+        for (Ast.Statement.Case caseStatement : ast.getCases()) {
+            if (!matched && caseStatement.getValue().isPresent() && caseStatement.getValue().get() instanceof Ast.Expression.Literal) {
+                Object value = ((Ast.Expression.Literal) caseStatement.getValue().get()).getLiteral();
+                if (!Objects.equals(((Ast.Expression.Literal) ast.getCondition()).getLiteral(), value)) {
+                    removed += count(caseStatement);
+                    changed = true;
+                    continue;
+                }
+            }
+            matched = true;
+            cases.add(visit(caseStatement));
+            changed |= cases.get(cases.size() - 1) != caseStatement;
+        }
+        return changed ? new Ast.Statement.Switch(ast.getCondition(), cases) : ast;
+    }
+
+    @Override
+    public Ast.Statement.Case visit(Ast.Statement.Case ast) {
+        List<Ast.Statement> statements = block(ast.getStatements(), false);
+        return statements == ast.getStatements() ? ast : new Ast.Statement.Case(ast.getValue(), statements);
+    }
+
+    @Override
+    public Ast.Statement visit(Ast.Statement.While ast) {
+        List<Ast.Statement> statements = block(ast.getStatements(), false);
+        return statements == ast.getStatements() ? ast : new Ast.Statement.While(ast.getCondition(), statements);
+    }
+
+    @Override
+    public Ast.Statement visit(Ast.Statement.Return ast) {
+        return ast;
+    }
+
+    @Override
+    public Ast.Expression visit(Ast.Expression.Literal ast) {
+        return ast;
+    }
+
+    @Override
+    public Ast.Expression visit(Ast.Expression.Group ast) {
+        return ast;
+    }
+
+    @Override
+    public Ast.Expression visit(Ast.Expression.Binary ast) {
+        return ast;
+    }
+
+    @Override
+    public Ast.Expression visit(Ast.Expression.Access ast) {
+        return ast;
+    }
+
+    @Override
+    public Ast.Expression visit(Ast.Expression.Function ast) {
+        return ast;
+    }
+
+    @Override
+    public Ast.Expression visit(Ast.Expression.PlcList ast) {
+        return ast;
+    }
+
+    /**
+     * Eliminates the dead code of the statements of a block, returning the
+     * same list if none of them changed. If the block is {@code required} to
+     * have a statement (as a branch of an {@code IF} is when the other branch
+     * is empty, since the {@link Analyzer} rejects an {@code IF} with both
+     * empty), the last {@code WHILE FALSE} is kept if removing it would leave
+     * the block empty.
+     */
+    private List<Ast.Statement> block(List<Ast.Statement> statements, boolean required) {
+        List<Ast.Statement> eliminated = new ArrayList<>();
+        boolean changed = false;
+        for (int i = 0; i < statements.size(); i++) {
+            Ast.Statement statement = statements.get(i);
+            boolean last = required && eliminated.isEmpty() && i == statements.size() - 1;
+            if (statement instanceof Ast.Statement.While && isLiteral(((Ast.Statement.While) statement).getCondition(), false) && !last) {
+                removed += count(statement);
+                changed = true;
+                continue;
+            }
+            eliminated.add((Ast.Statement) visit(statement));
+            changed |= eliminated.get(eliminated.size() - 1) != statement;
+            if (!completes(eliminated.get(eliminated.size() - 1))) {
+                for (Ast.Statement unreachable : statements.subList(i + 1, statements.size())) {
+                    removed += count(unreachable);
+                    changed = true;
+                }
+                break;
+            }
+        }
+        return changed ? eliminated : statements;
+    }
+
+    /**
+     * Returns true if running the statement can continue with the statement
+     * after it. Since the statements of an eliminated block after one which
+     * doesn't complete are removed, a block completes if its last statement
+     * does.
+     */
+    private static boolean completes(Ast.Statement statement) {
+        if (statement instanceof Ast.Statement.Return) {
+            return false;
+        } else if (statement instanceof Ast.Statement.While) {
+            return !isLiteral(((Ast.Statement.While) statement).getCondition(), true);
+        } else if (statement instanceof Ast.Statement.If) {
+            Ast.Statement.If ast = (Ast.Statement.If) statement;
+            return completes(ast.getThenStatements()) || completes(ast.getElseStatements());
+        }
+        return true;
+    }
+
+    private static boolean completes(List<Ast.Statement> statements) {
+        return statements.isEmpty() || completes(statements.get(statements.size() - 1));
+    }
+
+    private static boolean isLiteral(Ast.Expression expression, boolean value) {
+        return expression instanceof Ast.Expression.Literal && Objects.equals(((Ast.Expression.Literal) expression).getLiteral(), value);
+    }
+
+    private static String signature(String name, int arity) {
+        return name + "/" + arity;
+    }
+
+    private static int count(Ast ast) {
+        Walker walker = new Walker();
+        walker.visit(ast);
+        return walker.nodes;
+    }
+
+    /**
+     * Walks every node of an AST, counting them and collecting the signature
+     * ({@code name/arity}) of each function called.
+     */
+    private static final class Walker implements Ast.Visitor<Void> {
+
+        private int nodes = 0;
+        private final Set<String> calls = new HashSet<>();
+
+        @Override
+        public Void visit(Ast.Source ast) {
+            nodes++;
+            ast.getGlobals().forEach(this::visit);
+            ast.getFunctions().forEach(this::visit);
+            return null;
+        }
+
+        @Override
+        public Void visit(Ast.Global ast) {
+            nodes++;
+            ast.getValue().ifPresent(this::visit);
+            return null;
+        }
+
+        @Override
+        public Void visit(Ast.Function ast) {
+            nodes++;
+            ast.getStatements().forEach(this::visit);
+            return null;
+        }
+
+        @Override
+        public Void visit(Ast.Statement.Expression ast) {
+            nodes++;
+            visit(ast.getExpression());
+            return null;
+        }
+
+        @Override
+        public Void visit(Ast.Statement.Declaration ast) {
+            nodes++;
+            ast.getValue().ifPresent(this::visit);
+            return null;
+        }
+
+        @Override
+        public Void visit(Ast.Statement.Assignment ast) {
+            nodes++;
+            visit(ast.getReceiver());
+            visit(ast.getValue());
+            return null;
+        }
+
+        @Override
+        public Void visit(Ast.Statement.If ast) {
+            nodes++;
+            visit(ast.getCondition());
+            ast.getThenStatements().forEach(this::visit);
+            ast.getElseStatements().forEach(this::visit);
+            return null;
+        }
+
+        @Override
+        public Void visit(Ast.Statement.Switch ast) {
+            nodes++;
+            visit(ast.getCondition());
+            ast.getCases().forEach(this::visit);
+            return null;
+        }
+
+        @Override
+        public Void visit(Ast.Statement.Case ast) {
+            nodes++;
+            ast.getValue().ifPresent(this::visit);
+            ast.getStatements().forEach(this::visit);
+            return null;
+        }
+
+        @Override
+        public Void visit(Ast.Statement.While ast) {
+            nodes++;
+            visit(ast.getCondition());
+            ast.getStatements().forEach(this::visit);
+            return null;
+        }
+
+        @Override
+        public Void visit(Ast.Statement.Return ast) {
+            nodes++;
+            visit(ast.getValue());
+            return null;
+        }
+
+        @Override
+        public Void visit(Ast.Expression.Literal ast) {
+            nodes++;
+            return null;
+        }
+
+        @Override
+        public Void visit(Ast.Expression.Group ast) {
+            nodes++;
+            visit(ast.getExpression());
+            return null;
+        }
+
+        @Override
+        public Void visit(Ast.Expression.Binary ast) {
+            nodes++;
+            visit(ast.getLeft());
+            visit(ast.getRight());
+            return null;
+        }
+
+        @Override
+        public Void visit(Ast.Expression.Access ast) {
+            nodes++;
+            ast.getOffset().ifPresent(this::visit);
+            return null;
+        }
+
+        @Override
+        public Void visit(Ast.Expression.Function ast) {
+            nodes++;
+            calls.add(signature(ast.getName(), ast.getArguments().size()));
+            ast.getArguments().forEach(this::visit);
+            return null;
+        }
+
+        @Override
+        public Void visit(Ast.Expression.PlcList ast) {
+            nodes++;
+            ast.getValues().forEach(this::visit);
+            return null;
+        }
+
+    }
+
+}
@@ -0,0 +1,549 @@
+package plc.project;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * An {@link Ast.Source} encoded in parallel int arrays rather than a tree of
+ * objects. Nodes are numbered in preorder with the source as node 0, so every
+ * node of a large program can be visited by a plain loop over {@code 0} to
+ * {@link #size()}, and the only objects are the arrays and the pool of
+ * distinct names and literals.
+ * <p>
+ * Each node has a {@link Kind}, a slice of the {@code children} array, a
+ * {@code value} (the pool index of its name, operator or literal, or -1) and
+ * a {@code type} (the pool index of its type name, or -1). Children are node
+ * indices, with -1 for an absent optional expression, laid out by kind:
+ * <ul>
+ *     <li>{@code SOURCE}: the globals, then the functions</li>
+ *     <li>{@code GLOBAL}, {@code DECLARATION}: the value</li>
+ *     <li>{@code FUNCTION}: the pool indices of the parameter names and of
+ *     their type names, then the statements</li>
+ *     <li>{@code IF}: the condition, the then statements, then the else
+ *     statements</li>
+ *     <li>{@code SWITCH}: the condition, then the cases</li>
+ *     <li>{@code CASE}: the value, then the statements</li>
+ *     <li>{@code WHILE}: the condition, then the statements</li>
+ *     <li>{@code BINARY}, {@code ASSIGNMENT}: the left and right (or
+ *     receiver and value) expressions</li>
+ *     <li>{@code ACCESS}: the offset</li>
+ *     <li>{@code FUNCTION_CALL}, {@code LIST}: the arguments or values</li>
+ *     <li>{@code EXPRESSION}, {@code RETURN}, {@code GROUP}: the
+ *     expression</li>
+ * </ul>
+ * The {@code extra} of a node is the number of globals for a {@code SOURCE},
+ * of parameters for a {@code FUNCTION} and of then statements for an {@code
+ * IF}, and 1 for a mutable {@code GLOBAL}.
+ */
+public final class FlatAst {
+
+    public enum Kind {
+        SOURCE, GLOBAL, FUNCTION, EXPRESSION, DECLARATION, ASSIGNMENT, IF, SWITCH, CASE, WHILE, RETURN,
+        LITERAL, GROUP, BINARY, ACCESS, FUNCTION_CALL, LIST
+    }
+
+    private static final Kind[] KINDS = Kind.values();
+
+    private int size = 0;
+    private byte[] kinds = new byte[64];
+    private int[] firsts = new int[64];
+    private int[] counts = new int[64];
+    private int[] values = new int[64];
+    private int[] types = new int[64];
+    private int[] extras = new int[64];
+    private int[] children = new int[64];
+    private int childCount = 0;
+    private final List<Object> pool = new ArrayList<>();
+
+    private FlatAst() {}
+
+    /**
+     * Encodes {@code source}, parsing any function bodies which haven't been
+     * parsed yet. As with {@link AstSerializer}, only what the parser creates
+     * is kept.
+     */
+    public static FlatAst of(Ast.Source source) {
+        FlatAst ast = new FlatAst();
+        new Encoder(ast).visit(source);
+        return ast;
+    }
+
+    /**
+     * Returns the number of nodes.
+     */
+    public int size() {
+        return size;
+    }
+
+    public Kind getKind(int node) {
+        return KINDS[kinds[node]];
+    }
+
+    public int getChildCount(int node) {
+        return counts[node];
+    }
+
+    /**
+     * Returns the {@code i}th child of {@code node}, which is -1 for an absent
+     * optional expression.
+     */
+    public int getChild(int node, int i) {
+        return children[firsts[node] + i];
+    }
+
+    /**
+     * Returns the name, operator or literal of {@code node}.
+     */
+    public Object getValue(int node) {
+        return values[node] < 0 ? null : pool.get(values[node]);
+    }
+
+    public String getName(int node) {
+        return (String) getValue(node);
+    }
+
+    /**
+     * Returns the type name of a global, declaration or function.
+     */
+    public Optional<String> getTypeName(int node) {
+        return types[node] < 0 ? Optional.empty() : Optional.of((String) pool.get(types[node]));
+    }
+
+    public int getExtra(int node) {
+        return extras[node];
+    }
+
+    /**
+     * Returns the {@code i}th parameter name of a function.
+     */
+    public String getParameter(int node, int i) {
+        return (String) pool.get(getChild(node, i));
+    }
+
+    /**
+     * Returns the {@code i}th parameter type name of a function.
+     */
+    public String getParameterTypeName(int node, int i) {
+        return (String) pool.get(getChild(node, extras[node] + i));
+    }
+
+    /**
+     * Converts this back into an {@link Ast.Source}.
+     */
+    public Ast.Source toSource() {
+        return (Ast.Source) new Decoder().visit(this, 0);
+    }
+
+    /**
+     * Visits the nodes of a {@link FlatAst}, as {@link Ast.Visitor} does for
+     * the nodes of an {@link Ast}.
+     */
+    public interface Visitor<T> {
+
+        default T visit(FlatAst ast, int node) {
+            switch (ast.getKind(node)) {
+                case SOURCE: return visitSource(ast, node);
+                case GLOBAL: return visitGlobal(ast, node);
+                case FUNCTION: return visitFunction(ast, node);
+                case EXPRESSION: return visitExpression(ast, node);
+                case DECLARATION: return visitDeclaration(ast, node);
+                case ASSIGNMENT: return visitAssignment(ast, node);
+                case IF: return visitIf(ast, node);
+                case SWITCH: return visitSwitch(ast, node);
+                case CASE: return visitCase(ast, node);
+                case WHILE: return visitWhile(ast, node);
+                case RETURN: return visitReturn(ast, node);
+                case LITERAL: return visitLiteral(ast, node);
+                case GROUP: return visitGroup(ast, node);
+                case BINARY: return visitBinary(ast, node);
+                case ACCESS: return visitAccess(ast, node);
+                case FUNCTION_CALL: return visitFunctionCall(ast, node);
+                case LIST: return visitList(ast, node);
+                default: throw new AssertionError("Unimplemented AST kind: " + ast.getKind(node) + ".");
+            }
+        }
+
+        T visitSource(FlatAst ast, int node);
+
+        T visitGlobal(FlatAst ast, int node);
+
+        T visitFunction(FlatAst ast, int node);
+
+        T visitExpression(FlatAst ast, int node);
+
+        T visitDeclaration(FlatAst ast, int node);
+
+        T visitAssignment(FlatAst ast, int node);
+
+        T visitIf(FlatAst ast, int node);
+
+        T visitSwitch(FlatAst ast, int node);
+
+        T visitCase(FlatAst ast, int node);
+
+        T visitWhile(FlatAst ast, int node);
+
+        T visitReturn(FlatAst ast, int node);
+
+        T visitLiteral(FlatAst ast, int node);
+
+        T visitGroup(FlatAst ast, int node);
+
+        T visitBinary(FlatAst ast, int node);
+
+        T visitAccess(FlatAst ast, int node);
+
+        T visitFunctionCall(FlatAst ast, int node);
+
+        T visitList(FlatAst ast, int node);
+    }
+
+    /**
+     * Adds a node with {@code count} children, reserving their slice so the
+     * children of every node stay contiguous while its subtrees are added.
+     */
+    private int add(Kind kind, int count, int value, int type, int extra) {
+        if (size == kinds.length) {
+            int capacity = 2 * size;
+            kinds = Arrays.copyOf(kinds, capacity);
+            firsts = Arrays.copyOf(firsts, capacity);
+            counts = Arrays.copyOf(counts, capacity);
+            values = Arrays.copyOf(values, capacity);
+            types = Arrays.copyOf(types, capacity);
+            extras = Arrays.copyOf(extras, capacity);
+        }
+        if (childCount + count > children.length) {
+            children = Arrays.copyOf(children, Math.max(2 * children.length, childCount + count));
+        }
+        kinds[size] = (byte) kind.ordinal();
+        firsts[size] = childCount;
+        counts[size] = count;
+        values[size] = value;
+        types[size] = type;
+        extras[size] = extra;
+        childCount += count;
+        return size++;
+    }
+
+    private static final class Encoder implements Ast.Visitor<Integer> {
+
+        private final FlatAst flat;
+        private final Map<Object, Integer> indices = new HashMap<>();
+
+        private Encoder(FlatAst flat) {
+            this.flat = flat;
+        }
+
+        @Override
+        public Integer visit(Ast.Source ast) {
+            List<Ast.Global> globals = ast.getGlobals();
+            List<Ast.Function> functions = ast.getFunctions();
+            int node = flat.add(Kind.SOURCE, globals.size() + functions.size(), -1, -1, globals.size());
+            int slot = flat.firsts[node];
+            for (Ast.Global global : globals) {
+                set(slot++, visit(global));
+            }
+            for (Ast.Function function : functions) {
+                set(slot++, visit(function));
+            }
+            return node;
+        }
+
+        @Override
+        public Integer visit(Ast.Global ast) {
+            int node = flat.add(Kind.GLOBAL, 1, pool(ast.getName()), type(ast.getTypeName()), ast.getMutable() ? 1 : 0);
+            set(flat.firsts[node], optional(ast.getValue()));
+            return node;
+        }
+
+        @Override
+        public Integer visit(Ast.Function ast) {
+            List<String> parameters = ast.getParameters();
+            List<String> typeNames = ast.getParameterTypeNames();
+            List<Ast.Statement> statements = ast.getStatements();
+            int node = flat.add(Kind.FUNCTION, parameters.size() + typeNames.size() + statements.size(),
+                    pool(ast.getName()), type(ast.getReturnTypeName().orElse(null)), parameters.size());
+            int slot = flat.firsts[node];
+            for (String parameter : parameters) {
+                set(slot++, pool(parameter));
+            }
+            for (String typeName : typeNames) {
+                set(slot++, pool(typeName));
+            }
+            children(node, parameters.size() + typeNames.size(), statements);
+            return node;
+        }
+
+        @Override
+        public Integer visit(Ast.Statement.Expression ast) {
+            return node(Kind.EXPRESSION, -1, ast.getExpression());
+        }
+
+        @Override
+        public Integer visit(Ast.Statement.Declaration ast) {
+            int node = flat.add(Kind.DECLARATION, 1, pool(ast.getName()), type(ast.getTypeName().orElse(null)), 0);
+            set(flat.firsts[node], optional(ast.getValue()));
+            return node;
+        }
+
+        @Override
+        public Integer visit(Ast.Statement.Assignment ast) {
+            return node(Kind.ASSIGNMENT, -1, ast.getReceiver(), ast.getValue());
+        }
+
+        @Override
+        public Integer visit(Ast.Statement.If ast) {
+            List<Ast.Statement> thenStatements = ast.getThenStatements();
+            List<Ast.Statement> elseStatements = ast.getElseStatements();
+            int node = flat.add(Kind.IF, 1 + thenStatements.size() + elseStatements.size(), -1, -1, thenStatements.size());
+            set(flat.firsts[node], visit(ast.getCondition()));
+            children(node, 1, thenStatements);
+            children(node, 1 + thenStatements.size(), elseStatements);
+            return node;
+        }
+
+        @Override
+        public Integer visit(Ast.Statement.Switch ast) {
+            return block(Kind.SWITCH, ast.getCondition(), ast.getCases());
+        }
+
+        @Override
+        public Integer visit(Ast.Statement.Case ast) {
+            int node = flat.add(Kind.CASE, 1 + ast.getStatements().size(), -1, -1, 0);
+            set(flat.firsts[node], optional(ast.getValue()));
+            children(node, 1, ast.getStatements());
+            return node;
+        }
+
+        @Override
+        public Integer visit(Ast.Statement.While ast) {
+            return block(Kind.WHILE, ast.getCondition(), ast.getStatements());
+        }
+
+        @Override
+        public Integer visit(Ast.Statement.Return ast) {
+            return node(Kind.RETURN, -1, ast.getValue());
+        }
+
+        @Override
+        public Integer visit(Ast.Expression.Literal ast) {
+            return flat.add(Kind.LITERAL, 0, pool(ast.getLiteral()), -1, 0);
+        }
+
+        @Override
+        public Integer visit(Ast.Expression.Group ast) {
+            return node(Kind.GROUP, -1, ast.getExpression());
+        }
+
+        @Override
+        public Integer visit(Ast.Expression.Binary ast) {
+            return node(Kind.BINARY, pool(ast.getOperator()), ast.getLeft(), ast.getRight());
+        }
+
+        @Override
+        public Integer visit(Ast.Expression.Access ast) {
+            int node = flat.add(Kind.ACCESS, 1, pool(ast.getName()), -1, 0);
+            set(flat.firsts[node], optional(ast.getOffset()));
+            return node;
+        }
+
+        @Override
+        public Integer visit(Ast.Expression.Function ast) {
+            int node = flat.add(Kind.FUNCTION_CALL, ast.getArguments().size(), pool(ast.getName()), -1, 0);
+            children(node, 0, ast.getArguments());
+            return node;
+        }
+
+        @Override
+        public Integer visit(Ast.Expression.PlcList ast) {
+            int node = flat.add(Kind.LIST, ast.getValues().size(), -1, -1, 0);
+            children(node, 0, ast.getValues());
+            return node;
+        }
+
+        /**
+         * Sets the child at {@code slot}, which must be done after the child
+         * is encoded as that may reallocate the children array.
+         */
+        private void set(int slot, int child) {
+            flat.children[slot] = child;
+        }
+
+        private int node(Kind kind, int value, Ast.Expression... expressions) {
+            int node = flat.add(kind, expressions.length, value, -1, 0);
+            for (int i = 0; i < expressions.length; i++) {
+                set(flat.firsts[node] + i, visit(expressions[i]));
+            }
+            return node;
+        }
+
+        private int block(Kind kind, Ast.Expression condition, List<? extends Ast.Statement> statements) {
+            int node = flat.add(kind, 1 + statements.size(), -1, -1, 0);
+            set(flat.firsts[node], visit(condition));
+            children(node, 1, statements);
+            return node;
+        }
+
+        private void children(int node, int offset, List<? extends Ast> asts) {
+            int slot = flat.firsts[node] + offset;
+            for (Ast ast : asts) {
+                set(slot++, visit(ast));
+            }
+        }
+
+        private int optional(Optional<Ast.Expression> ast) {
+            return ast.isPresent() ? visit(ast.get()) : -1;
+        }
+
+        /**
+         * Returns the pool index of {@code name}, or -1 if it is absent.
+         */
+        private int type(String name) {
+            return name == null ? -1 : pool(name);
+        }
+
+        /**
+         * Returns the pool index of {@code value}, adding it if it is new.
+         */
+        private int pool(Object value) {
+            Integer index = indices.get(value);
+            if (index == null) {
+                index = flat.pool.size();
+                flat.pool.add(value);
+                indices.put(value, index);
+            }
+            return index;
+        }
+
+    }
+
+    private static final class Decoder implements Visitor<Ast> {
+
+        @Override
+        public Ast visitSource(FlatAst ast, int node) {
+            int globalCount = ast.getExtra(node);
+            List<Ast.Global> globals = new ArrayList<>(globalCount);
+            List<Ast.Function> functions = new ArrayList<>(ast.getChildCount(node) - globalCount);
+            for (int i = 0; i < ast.getChildCount(node); i++) {
+                if (i < globalCount) {
+                    globals.add((Ast.Global) visit(ast, ast.getChild(node, i)));
+                } else {
+                    functions.add((Ast.Function) visit(ast, ast.getChild(node, i)));
+                }
+            }
+            return new Ast.Source(globals, functions);
+        }
+
+        @Override
+        public Ast visitGlobal(FlatAst ast, int node) {
+            return new Ast.Global(ast.getName(node), ast.getTypeName(node).get(), ast.getExtra(node) != 0, optional(ast, node, 0));
+        }
+
+        @Override
+        public Ast visitFunction(FlatAst ast, int node) {
+            int parameterCount = ast.getExtra(node);
+            List<String> parameters = new ArrayList<>(parameterCount);
+            List<String> typeNames = new ArrayList<>(parameterCount);
+            for (int i = 0; i < parameterCount; i++) {
+                parameters.add(ast.getParameter(node, i));
+                typeNames.add(ast.getParameterTypeName(node, i));
+            }
+            return new Ast.Function(ast.getName(node), parameters, typeNames, ast.getTypeName(node), list(ast, node, 2 * parameterCount, ast.getChildCount(node)));
+        }
+
+        @Override
+        public Ast visitExpression(FlatAst ast, int node) {
+            return new Ast.Statement.Expression(expression(ast, node, 0));
+        }
+
+        @Override
+        public Ast visitDeclaration(FlatAst ast, int node) {
+            return new Ast.Statement.Declaration(ast.getName(node), ast.getTypeName(node), optional(ast, node, 0));
+        }
+
+        @Override
+        public Ast visitAssignment(FlatAst ast, int node) {
+            return new Ast.Statement.Assignment(expression(ast, node, 0), expression(ast, node, 1));
+        }
+
+        @Override
+        public Ast visitIf(FlatAst ast, int node) {
+            int split = 1 + ast.getExtra(node);
+            return new Ast.Statement.If(expression(ast, node, 0), list(ast, node, 1, split), list(ast, node, split, ast.getChildCount(node)));
+        }
+
+        @Override
+        public Ast visitSwitch(FlatAst ast, int node) {
+            return new Ast.Statement.Switch(expression(ast, node, 0), list(ast, node, 1, ast.getChildCount(node)));
+        }
+
+        @Override
+        public Ast visitCase(FlatAst ast, int node) {
+            return new Ast.Statement.Case(optional(ast, node, 0), list(ast, node, 1, ast.getChildCount(node)));
+        }
+
+        @Override
+        public Ast visitWhile(FlatAst ast, int node) {
+            return new Ast.Statement.While(expression(ast, node, 0), list(ast, node, 1, ast.getChildCount(node)));
+        }
+
+        @Override
+        public Ast visitReturn(FlatAst ast, int node) {
+            return new Ast.Statement.Return(expression(ast, node, 0));
+        }
+
+        @Override
+        public Ast visitLiteral(FlatAst ast, int node) {
+            return new Ast.Expression.Literal(ast.getValue(node));
+        }
+
+        @Override
+        public Ast visitGroup(FlatAst ast, int node) {
+            return new Ast.Expression.Group(expression(ast, node, 0));
+        }
+
+        @Override
+        public Ast visitBinary(FlatAst ast, int node) {
+            return new Ast.Expression.Binary(ast.getName(node), expression(ast, node, 0), expression(ast, node, 1));
+        }
+
+        @Override
+        public Ast visitAccess(FlatAst ast, int node) {
+            return new Ast.Expression.Access(optional(ast, node, 0), ast.getName(node));
+        }
+
+        @Override
+        public Ast visitFunctionCall(FlatAst ast, int node) {
+            return new Ast.Expression.Function(ast.getName(node), list(ast, node, 0, ast.getChildCount(node)));
+        }
+
+        @Override
+        public Ast visitList(FlatAst ast, int node) {
+            return new Ast.Expression.PlcList(list(ast, node, 0, ast.getChildCount(node)));
+        }
+
+        private Ast.Expression expression(FlatAst ast, int node, int i) {
+            return (Ast.Expression) visit(ast, ast.getChild(node, i));
+        }
+
+        private Optional<Ast.Expression> optional(FlatAst ast, int node, int i) {
+            int child = ast.getChild(node, i);
+            return child < 0 ? Optional.empty() : Optional.of((Ast.Expression) visit(ast, child));
+        }
+
+        @SuppressWarnings("unchecked")
+        private <T extends Ast> List<T> list(FlatAst ast, int node, int from, int to) {
+            List<T> list = new ArrayList<>(to - from);
+            for (int i = from; i < to; i++) {
+                list.add((T) visit(ast, ast.getChild(node, i)));
+            }
+            return list;
+        }
+
+    }
+
+}
@@ -0,0 +1,160 @@
+package plc.project;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Parses a source which is edited over and over, such as in an editor. After
+ * an edit only the globals and functions around it are parsed again, and all
+ * of the others in the returned source are the same instances as before.
+ * <p>
+ * The tokens are relexed with {@link Lexer#relex(TokenBuffer, int, int,
+ * String)}, and the index of the first token of each global and function is
+ * kept. A global or function is reused if it ends before the part of the input
+ * the lexer looked at again, or if it starts after the edit, where relexing
+ * found the same tokens as before. Parsing starts at the first one which can't
+ * be reused and continues until it reaches the start of one which can (or the
+ * end), so an edit removing an {@code END} reparses everything it swallows.
+ */
+public final class IncrementalParser {
+
+    private String input;
+    private TokenBuffer tokens;
+    private Ast.Source source;
+    private List<Ast> declarations;
+    private int[] starts;
+
+    public IncrementalParser(String input) {
+        this.input = input;
+    }
+
+    public String getInput() {
+        return input;
+    }
+
+    /**
+     * Returns the source for the current input, parsing all of it if it hasn't
+     * been parsed yet or the last edit failed to lex or parse.
+     */
+    public Ast.Source parse() throws ParseException {
+        if (source == null) {
+            if (tokens == null) {
+                tokens = new Lexer(input).lexBuffer();
+            }
+            reparse(Collections.emptyList(), new int[] {0}, 0, 0, 0);
+        }
+        return source;
+    }
+
+    /**
+     * Replaces the {@code removed} characters at {@code offset} with {@code
+     * inserted} and returns the parsed source for the edited input. The edit
+     * is kept even if it throws a {@link ParseException}, and the next edit
+     * then parses the whole input again.
+     */
+    public Ast.Source edit(int offset, int removed, String inserted) throws ParseException {
+        Objects.checkFromIndexSize(offset, removed, input.length());
+        input = input.substring(0, offset) + inserted + input.substring(offset + removed);
+        TokenBuffer previous = tokens;
+        List<Ast> reusable = source != null ? declarations : null;
+        tokens = null;
+        source = null;
+        declarations = null;
+        if (previous == null) {
+            return parse();
+        }
+        tokens = Lexer.relex(previous, offset, removed, inserted);
+        if (reusable == null) {
+            return parse();
+        }
+        int count = reusable.size();
+        int prefix = 0;
+        while (prefix < count && previous.getEnd(starts[prefix + 1] - 1) + Lexer.LOOKAHEAD <= offset) {
+            prefix++;
+        }
+        int shift = inserted.length() - removed;
+        int delta = tokens.size() - previous.size();
+        int suffix = prefix;
+        while (suffix < count && !isCopied(previous, starts[suffix], offset + inserted.length(), shift, delta)) {
+            suffix++;
+        }
+        reparse(reusable, starts, prefix, suffix, delta);
+        return source;
+    }
+
+    /**
+     * Returns true if the token at {@code index} in {@code previous} was
+     * copied over to the relexed tokens, where it starts at or after {@code
+     * after}. As relexing copies the rest of the tokens from the first one
+     * which starts there and also started a token before, a token at the
+     * same index from the end which starts at the same shifted position must
+     * be a copy.
+     */
+    private boolean isCopied(TokenBuffer previous, int index, int after, int shift, int delta) {
+        int copy = index + delta;
+        return copy >= 0 && copy < tokens.size() && tokens.getStart(copy) >= after
+                && tokens.getStart(copy) - shift == previous.getStart(index);
+    }
+
+    /**
+     * Keeps the first {@code prefix} of the {@code previous} declarations and
+     * parses from the first token after them until reaching the start of one
+     * from {@code suffix} on (whose tokens are now {@code delta} later), which
+     * is kept along with the rest of them.
+     */
+    private void reparse(List<Ast> previous, int[] previousStarts, int prefix, int suffix, int delta) {
+        List<Ast> declarations = new ArrayList<>(previous.subList(0, prefix));
+        int[] starts = Arrays.copyOf(previousStarts, previous.size() + 1);
+        int size = prefix;
+        boolean afterFunction = prefix > 0 && previous.get(prefix - 1) instanceof Ast.Function;
+        Parser parser = new Parser(tokens, previousStarts[prefix]);
+        Iterator<Ast> iterator = parser.parseDeclarations(afterFunction);
+        int reused = suffix;
+        while (true) {
+            int index = parser.getIndex();
+            while (reused < previous.size() && previousStarts[reused] + delta < index) {
+                reused++;
+            }
+            //a reused global after a function is an error, which parsing it again reports
+            if (reused < previous.size() && previousStarts[reused] + delta == index
+                    && !(afterFunction && previous.get(reused) instanceof Ast.Global)) {
+                break;
+            } else if (!iterator.hasNext()) {
+                break;
+            }
+            Ast declaration = iterator.next();
+            afterFunction = declaration instanceof Ast.Function;
+            declarations.add(declaration);
+            if (size == starts.length) {
+                starts = Arrays.copyOf(starts, 2 * size);
+            }
+            starts[size++] = index;
+        }
+        for (int i = reused; i < previous.size(); i++) {
+            declarations.add(previous.get(i));
+            if (size == starts.length) {
+                starts = Arrays.copyOf(starts, 2 * size);
+            }
+            starts[size++] = previousStarts[i] + delta;
+        }
+        starts = Arrays.copyOf(starts, size + 1);
+        starts[size] = tokens.size();
+        List<Ast.Global> globals = new ArrayList<>();
+        List<Ast.Function> functions = new ArrayList<>();
+        for (Ast declaration : declarations) {
+            if (declaration instanceof Ast.Global) {
+                globals.add((Ast.Global) declaration);
+            } else {
+                functions.add((Ast.Function) declaration);
+            }
+        }
+        this.source = new Ast.Source(globals, functions);
+        this.declarations = declarations;
+        this.starts = starts;
+    }
+
+}
@@ -1,7 +1,28 @@
 package plc.project;
 
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * The lexer works through three main functions:
@@ -14,210 +35,710 @@ import java.util.List;
  * should throw a {@link ParseException} with an index at the character which is
  * invalid.
  * <p>
- * The {@link #peek(String...)} and {@link #match(String...)} functions are * helpers you need to use, they will make the implementation a lot easier.
+ * Characters are classified with a precomputed table (see {@link #classOf(char)})
+ * rather than regexes, since matching a pattern against every character of the
+ * input dominated lexing time. The regex based {@link #peek(String...)} and
+ * {@link #match(String...)} helpers are still available for general use.
+ * <p>
+ * Besides a {@link String}, the lexer can read from a {@link Reader} or a
+ * {@link ReadableByteChannel} through a fixed size buffer which is refilled as
+ * tokens are consumed. Combined with {@link #iterator()} or {@link #stream()},
+ * this lexes arbitrarily large files without holding them in memory. Files can
+ * also be memory mapped with {@link #map(Path)}, in which case the bytes are
+ * decoded as they are lexed and token literals are only created when accessed.
+ * <p>
+ * Identifier and operator literals are interned in a {@link SymbolTable}, so
+ * repeated names share one string. Pass the same table to each lexer in a
+ * compilation to share them across files.
+ * <p>
+ * While skipping whitespace the lexer records where each line starts, so
+ * tokens know their line and column and {@link #position(int)} finds the
+ * position of any offset with a binary search instead of rescanning. Streams
+ * only keep the latest lines, so their memory use stays flat.
  */
 public final class Lexer {
 
+    /**
+     * Character classes used by the lexer, stored as bits in {@link #CLASSES}.
+     * Each class corresponds to one of the regexes the lexer used to match
+     * with, so {@code peekClass(0, DIGIT)} is {@code peek("[0-9]")} without
+     * compiling a pattern for every character.
+     */
+    static final int ANY = 1;              // .
+    static final int WHITESPACE = 2;       // [ \b\n\r\t]
+    static final int IDENTIFIER_START = 4; // [A-Za-z@]
+    static final int IDENTIFIER_PART = 8;  // [A-Za-z0-9_-]
+    static final int NUMBER_START = 16;    // [0-9-]
+    static final int DIGIT = 32;           // [0-9]
+    static final int NONZERO_DIGIT = 64;   // [1-9]
+    static final int ESCAPE = 128;         // [bnrt'"\\]
+    static final int COMPOUND_START = 256; // [!=&|], the first half of != == && ||
+
+    private static final int[] CLASSES = new int[128];
+
+    static {
+        for (char c = 0; c < CLASSES.length; c++) {
+            if (c != '\n' && c != '\r') {
+                CLASSES[c] |= ANY;
+            }
+            if (c == ' ' || c == '\b' || c == '\n' || c == '\r' || c == '\t') {
+                CLASSES[c] |= WHITESPACE;
+            }
+            if ((c >= 'A' && c <= 'Z') || (c >= 'a' && c <= 'z')) {
+                CLASSES[c] |= IDENTIFIER_START | IDENTIFIER_PART;
+            }
+            if (c >= '0' && c <= '9') {
+                CLASSES[c] |= IDENTIFIER_PART | NUMBER_START | DIGIT;
+            }
+            if (c >= '1' && c <= '9') {
+                CLASSES[c] |= NONZERO_DIGIT;
+            }
+            if ("bnrt'\"\\".indexOf(c) != -1) {
+                CLASSES[c] |= ESCAPE;
+            }
+            if ("!=&|".indexOf(c) != -1) {
+                CLASSES[c] |= COMPOUND_START;
+            }
+        }
+        CLASSES['@'] |= IDENTIFIER_START;
+        CLASSES['_'] |= IDENTIFIER_PART;
+        CLASSES['-'] |= IDENTIFIER_PART | NUMBER_START;
+    }
+
+    /**
+     * The number of characters buffered when lexing from a {@link Reader}.
+     */
+    static final int BUFFER_SIZE = 8192;
+
+    /**
+     * The smallest amount of input {@link #lexParallel(String, ForkJoinPool)}
+     * gives to a single task, below which splitting costs more than it saves.
+     */
+    static final int MIN_CHUNK_SIZE = 1 << 16;
+
+    /**
+     * How far past the end of a token the lexer may look while lexing it (as
+     * in {@code 1.} followed by a digit), which is how far before an edit
+     * {@link #relex(TokenBuffer, int, int, String)} has to start relexing.
+     */
+    static final int LOOKAHEAD = 2;
+
     private final CharStream chars;
 
 
     public Lexer(String input) {
-        chars = new CharStream(input);
+        this(input, new SymbolTable());
+    }
+
+    public Lexer(String input, SymbolTable symbols) {
+        chars = new CharStream(input, 0, input.length(), 1, symbols);
+    }
+
+    /**
+     * Lexes only the characters from {@code start} to {@code end}, with token
+     * indices relative to the start of {@code input} and {@code start} being
+     * on line {@code line}.
+     */
+    private Lexer(String input, int start, int end, int line) {
+        chars = new CharStream(input, start, end, line, new SymbolTable());
+    }
+
+    /**
+     * Lexes the characters read from {@code reader}, which is only ever
+     * buffered {@link #BUFFER_SIZE} characters at a time (or the length of the
+     * longest token, if that is larger). The reader is not closed.
+     */
+    public Lexer(Reader reader) {
+        this(reader, new SymbolTable());
+    }
+
+    public Lexer(Reader reader, SymbolTable symbols) {
+        chars = new ReaderStream(reader, BUFFER_SIZE, symbols);
+    }
+
+    /**
+     * Lexes the UTF-8 encoded bytes read from {@code channel}, as with {@link
+     * #Lexer(Reader)}. The channel is not closed.
+     */
+    public Lexer(ReadableByteChannel channel) {
+        this(Channels.newReader(channel, StandardCharsets.UTF_8.newDecoder(), BUFFER_SIZE));
+    }
+
+    /**
+     * Lexes the UTF-8 encoded bytes between the buffer's position and limit,
+     * decoding characters as they are needed. Tokens keep a reference to the
+     * buffer and only decode their literal on the first call to {@link
+     * Token#getLiteral()}, so the contents must not change while they are in
+     * use. Token indices are character (not byte) offsets, as for a String.
+     */
+    public Lexer(ByteBuffer bytes) {
+        chars = new MappedStream(bytes.slice());
+    }
+
+    /**
+     * Returns the table interning this lexer's identifier and operator
+     * literals. Tokens from a memory mapped file aren't interned, since their
+     * literals are only created if accessed.
+     */
+    public SymbolTable getSymbols() {
+        return chars.symbols;
+    }
+
+    /**
+     * Memory maps the file at {@code path} and lexes it as with {@link
+     * #Lexer(ByteBuffer)}. The mapping remains valid after the file is closed.
+     */
+    public static Lexer map(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return new Lexer(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
     }
 
     /**
      * Repeatedly lexes the input using {@link #lexToken()}, also skipping over
-     * whitespace where appropriate.
+     * whitespace where appropriate. This continues to the end of the input:
+     * {@code \n} and {@code \r} are skipped like any other whitespace, and the
+     * other line terminators (U+0085, U+2028 and U+2029) are operators of one
+     * character, like any other character which starts no other token.
      */
     public List<Token> lex() {
-        //GOAL: Calling LexToken() and adding to create list of tokens
-        //create the list<token>
-        //while there are still characters
-        //if chars not whitespace via peek,
-        //list tokens add lextoken() (ex: array.add(lexToken()); )
-        //move in the char stream?
-        //keep moving in the char stream?
-
         List<Token> tokenList = new ArrayList<Token>();
 
-        while (peek(".")) {
-            if (peek("[ \b\n\r\t]")) {
-                chars.advance();
-                chars.skip();
-            } else {
-                tokenList.add(lexToken());
+        Token token;
+        while ((token = lexNext()) != null) {
+            tokenList.add(token);
+        }
+        return tokenList;
+    }
+
+    /**
+     * Lexes the input as with {@link #lex()}, but instead of throwing at the
+     * first invalid character or string literal it adds the exception to
+     * {@code errors}, skips the rest of the literal (see {@link
+     * #recover(char)}) and keeps lexing, so every error is reported in one
+     * pass. The invalid literals are left out of the returned tokens.
+     */
+    public List<Token> lex(List<ParseException> errors) {
+        List<Token> tokenList = new ArrayList<Token>();
+        while (skipWhitespace()) {
+            char first = chars.get(0);
+            try {
+                tokenList.add(chars.emit(scanToken()));
+            } catch (ParseException e) {
+                errors.add(e);
+                recover(first);
             }
         }
         return tokenList;
     }
 
     /**
-     * This method determines the type of the next token, delegating to the
-     * appropriate lex method. As such, it is best for this method to not change
-     * the state of the char stream (thus, use peek not match).
+     * Lexes {@code input} as with {@link #lex()}, but splits it into chunks
+     * which are lexed concurrently by {@code pool} and joined back together.
      * <p>
-     * The next character should start a valid token since whitespace is handled
-     * by {@link #lex()}
+     * Chunks end just after a newline. No token (including strings and
+     * characters, which can't contain line terminators) spans a newline or
+     * looks past one, so each chunk lexes exactly as it would in the whole
+     * input. If lexing fails, the exception from the earliest failing chunk is
+     * thrown, which is the one {@link #lex()} would throw.
      */
-    public Token lexToken() {
-        //TODO
-        //GOAL: Deal with the rest of the lex's
-        //find a way to grab the first character and then find out which of the types it is
-        //if peek(regex for first character in number)
-        //lexNumber() (which will make the token)
-        //if peek(regex for character)
-        //lexCharacter()
-        //last is lexOperator since its everything else
-
-        if (peek("[A-Za-z@]")) {
-            return lexIdentifier();
-        } else if (peek("[0-9-]")) {
-            return lexNumber();
-        } else if (peek("[\\']")) {
-            return lexCharacter();
-        } else if (peek("\\\"")) {
-            return lexString();
-        } else {
-            return lexOperator();
+    public static List<Token> lexParallel(String input, ForkJoinPool pool) {
+        int chunks = Math.min(4 * pool.getParallelism(), input.length() / MIN_CHUNK_SIZE);
+        if (chunks < 2) {
+            return new Lexer(input).lex();
+        }
+        List<Integer> bounds = new ArrayList<>();
+        bounds.add(0);
+        for (int i = 1; i <= chunks && bounds.get(bounds.size() - 1) < input.length(); i++) {
+            int end = i == chunks ? -1 : input.indexOf('\n', (int) ((long) input.length() * i / chunks));
+            end = end == -1 ? input.length() : end + 1;
+            if (end > bounds.get(bounds.size() - 1)) {
+                bounds.add(end);
+            }
+        }
+        //each chunk needs the line it starts on, so count the lines of all but the last first
+        List<ForkJoinTask<Integer>> counts = new ArrayList<>();
+        for (int i = 0; i < bounds.size() - 2; i++) {
+            int chunkStart = bounds.get(i);
+            int chunkEnd = bounds.get(i + 1);
+            counts.add(pool.submit(() -> countLines(input, chunkStart, chunkEnd)));
+        }
+        List<ForkJoinTask<List<Token>>> tasks = new ArrayList<>();
+        int line = 1;
+        for (int i = 0; i < bounds.size() - 1; i++) {
+            int chunkStart = bounds.get(i);
+            int chunkEnd = bounds.get(i + 1);
+            int chunkLine = line;
+            tasks.add(pool.submit(() -> new Lexer(input, chunkStart, chunkEnd, chunkLine).lex()));
+            if (i < counts.size()) {
+                line += counts.get(i).join();
+            }
         }
+        List<List<Token>> results = new ArrayList<>();
+        int size = 0;
+        try {
+            for (ForkJoinTask<List<Token>> task : tasks) {
+                List<Token> result = task.join();
+                results.add(result);
+                size += result.size();
+            }
+        } finally {
+            for (ForkJoinTask<List<Token>> task : tasks) {
+                task.cancel(false);
+            }
+        }
+        List<Token> tokens = new ArrayList<>(size);
+        for (List<Token> result : results) {
+            tokens.addAll(result);
+        }
+        return tokens;
     }
 
-    public Token lexIdentifier() {
-        //While there is characters that match the regex, we match them
-        //return w chars.emit as said in lecture
+    /**
+     * Returns the number of line breaks from {@code start} to {@code end}, as
+     * counted by {@link #skipWhitespace()}.
+     */
+    private static int countLines(String input, int start, int end) {
+        int lines = 0;
+        for (int i = start; i < end; i++) {
+            char c = input.charAt(i);
+            if (c == '\n' || (c == '\r' && (i + 1 == input.length() || input.charAt(i + 1) != '\n'))) {
+                lines++;
+            }
+        }
+        return lines;
+    }
 
-        if (peek("@")) {
-            match("@");
+    /**
+     * Returns the line and column of the character at {@code index}, which
+     * must be at or before the end of the last token lexed so far. When
+     * lexing a reader, channel or byte buffer only a bounded number of the
+     * latest lines are kept, so an index on an earlier line throws an {@link
+     * IllegalArgumentException}.
+     */
+    public Position position(int index) {
+        return chars.position(index);
+    }
+
+    /**
+     * Returns the number of line starts the lexer has room for, which stays
+     * bounded unless lexing a String.
+     */
+    int lineCapacity() {
+        return chars.lineCapacity();
+    }
+
+    /**
+     * Lexes the input as with {@link #lex()}, recording the tokens in a {@link
+     * TokenBuffer} without creating a {@link Token} for each of them. This is
+     * only supported when lexing a String, which the buffer refers back to.
+     */
+    public TokenBuffer lexBuffer() {
+        if (chars.input == null) {
+            throw new IllegalStateException("A token buffer requires the input to be a String.");
         }
-        String regex = "([A-Za-z0-9_-])";
-        while (peek(regex)) {
-            if (peek("@")) {
-                return chars.emit(Token.Type.IDENTIFIER);
-            }
-            match(regex);
+        TokenBuffer buffer = new TokenBuffer(chars.input, chars.symbols);
+        while (skipWhitespace()) {
+            scanInto(buffer);
         }
-        return chars.emit(Token.Type.IDENTIFIER);
+        return buffer;
     }
 
-    public Token lexNumber() {
-        //TODO make sure this works correctly
-        if (peek("-")) {
-            match("-");
-            if (peek("[1-9]")) {
-                match("[1-9]");
-                while (peek("[0-9]")) {
-                    match("[0-9]");
-                }
-                if (peek("[.]", "[0-9]")) {
-                    match("[.]");
-                    while (peek("[0-9]")) {
-                        match("[0-9]");
-                    }
-                    return chars.emit(Token.Type.DECIMAL);
-                } else {
-                    return chars.emit(Token.Type.INTEGER);
+    /**
+     * Returns the tokens of {@code previous}'s source after replacing the
+     * {@code removed} characters at {@code offset} with {@code inserted}, the
+     * same as {@link #lexBuffer()} on the edited source would.
+     * <p>
+     * Tokens which end far enough before the edit that the lexer never looked
+     * at it are kept, and lexing restarts after the last of them. Once a token
+     * would start after the inserted text, at a position which (shifted back
+     * by the edit's change in length) also started a token in {@code
+     * previous}, the rest of the input is the same as before and so are its
+     * tokens, which are copied over with their offsets shifted.
+     */
+    public static TokenBuffer relex(TokenBuffer previous, int offset, int removed, String inserted) {
+        String source = previous.getSource();
+        Objects.checkFromIndexSize(offset, removed, source.length());
+        String edited = source.substring(0, offset) + inserted + source.substring(offset + removed);
+        int shift = inserted.length() - removed;
+        int stable = 0;
+        while (stable < previous.size() && previous.getEnd(stable) + LOOKAHEAD <= offset) {
+            stable++;
+        }
+        TokenBuffer buffer = new TokenBuffer(edited, previous.getSymbols());
+        buffer.addAll(previous, 0, stable, 0);
+        //buffers don't record lines, so the line the lexer starts counting from doesn't matter
+        Lexer lexer = new Lexer(edited, stable == 0 ? 0 : previous.getEnd(stable - 1), edited.length(), 1);
+        while (lexer.skipWhitespace()) {
+            int start = lexer.chars.index;
+            if (start >= offset + inserted.length()) {
+                int match = previous.indexOfStart(start - shift);
+                if (match >= 0) {
+                    buffer.addAll(previous, match, previous.size(), shift);
+                    break;
                 }
             }
-            return chars.emit(Token.Type.OPERATOR);
-        } else {
-            if (peek("[0]")) {
-                match("[0]");
-                return chars.emit(Token.Type.INTEGER);
-            }
-            if (peek("[1-9]")) {
-                match("[1-9]");
-                while (peek("[0-9]")) {
-                    match("[0-9]");
+            lexer.scanInto(buffer);
+        }
+        return buffer;
+    }
+
+    /**
+     * Returns an iterator which lexes tokens on demand as in {@link #lex()},
+     * so only the current token (and the stream's buffer) is kept in memory. A
+     * {@link ParseException} is thrown from {@link Iterator#hasNext()} when the
+     * next token is invalid.
+     */
+    public Iterator<Token> iterator() {
+        return new Iterator<Token>() {
+
+            private Token next = null;
+
+            @Override
+            public boolean hasNext() {
+                if (next == null) {
+                    next = lexNext();
                 }
-                if (peek("[.]", "[0-9]")) {
-                    match("[.]");
-                    while (peek("[0-9]")) {
-                        match("[0-9]");
-                    }
-                    return chars.emit(Token.Type.DECIMAL);
-                } else {
-                    return chars.emit(Token.Type.INTEGER);
+                return next != null;
+            }
+
+            @Override
+            public Token next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
                 }
+                Token token = next;
+                next = null;
+                return token;
             }
-        }
-        return chars.emit(Token.Type.INTEGER);
+
+        };
     }
 
-    public Token lexCharacter() {
-        //Perfection
+    /**
+     * Returns the tokens of {@link #iterator()} as a sequential stream.
+     */
+    public Stream<Token> stream() {
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator(),
+                Spliterator.ORDERED | Spliterator.NONNULL), false);
+    }
 
-        if (!peek("[\\']", ".")) {
-            match("[\\']");
-            return chars.emit(Token.Type.OPERATOR);
-        } else {
-            match("[\\']");
-        }
-        if (peek("[\\\\]", "[bnrt\\'\\\"\\\\]", "[\\']")) {
-            match("[\\\\]");
-            match("[bnrt\\'\\\"\\\\]");
-            match("[\\']");
-            return chars.emit(Token.Type.CHARACTER);
-        } else if (peek("[^\\'\\\\]", "[\\']")) {
-            match("[^\\'\\\\]", "[\\']");
-            return chars.emit(Token.Type.CHARACTER);
-        } else if (peek("[\\']")) {
-            throw new ParseException("NOT ALLOWED", chars.index);
-        } else {
+    /**
+     * Skips any whitespace and lexes the next token, returning {@code null}
+     * once the input is exhausted.
+     */
+    private Token lexNext() {
+        return skipWhitespace() ? lexToken() : null;
+    }
 
-            throw new ParseException("NOT ALLOWED", chars.index+=1);
+    /**
+     * Skips any whitespace, returning true if there is a token after it.
+     */
+    private boolean skipWhitespace() {
+        while (peekClass(0, WHITESPACE)) {
+            //tokens never contain line terminators, so this sees every line break
+            if (peekChar(0, '\n') || (peekChar(0, '\r') && !peekChar(1, '\n'))) {
+                chars.newline(chars.index + 1);
+            }
+            chars.advance();
+            chars.skip();
         }
+        return chars.has(0);
+    }
+
+    /**
+     * This method determines the type of the next token, delegating to the
+     * appropriate lex method. As such, it is best for this method to not change
+     * the state of the char stream (thus, use peek not match).
+     * <p>
+     * The next character should start a valid token since whitespace is handled
+     * by {@link #lex()}
+     */
+    public Token lexToken() {
+        return chars.emit(scanToken());
+    }
 
+    public Token lexIdentifier() {
+        return chars.emit(scanIdentifier());
+    }
 
+    public Token lexNumber() {
+        return chars.emit(scanNumber());
+    }
+
+    public Token lexCharacter() {
+        return chars.emit(scanCharacter());
     }
 
     public Token lexString() {
+        return chars.emit(scanString());
+    }
 
-        int indexIncrement = 0;
-        if (!peek("[\\\"]", ".")) {
-            match("[\\\"]");
-            return chars.emit(Token.Type.OPERATOR);
+    public void lexEscape() {
+        throw new UnsupportedOperationException(); //TODO
+    }
+
+    public Token lexOperator() {
+        return chars.emit(scanOperator());
+    }
+
+    /**
+     * Scans the next token and records it in {@code buffer}.
+     */
+    private void scanInto(TokenBuffer buffer) {
+        Token.Type type = scanToken();
+        buffer.add(type, chars.index - chars.length, chars.index);
+        chars.skip();
+    }
+
+    /**
+     * The scan methods below implement their corresponding lex method, leaving
+     * the char stream at the end of the token and returning its type instead of
+     * emitting it. This lets {@link #lexBuffer()} record tokens without ever
+     * creating the objects.
+     */
+
+    private Token.Type scanToken() {
+        if (peekClass(0, IDENTIFIER_START)) {
+            return scanIdentifier();
+        } else if (peekClass(0, NUMBER_START)) {
+            return scanNumber();
+        } else if (peekChar(0, '\'')) {
+            return scanCharacter();
+        } else if (peekChar(0, '"')) {
+            return scanString();
         } else {
-            match("[\\\"]");
+            return scanOperator();
         }
+    }
 
-        while (peek(".")) {
+    private Token.Type scanIdentifier() {
+        if (peekChar(0, '@')) {
+            chars.advance();
+        }
+        while (peekClass(0, IDENTIFIER_PART)) {
+            chars.advance();
+        }
+        return Token.Type.IDENTIFIER;
+    }
 
-            if (peek("[\\\\]")) {
-                match("[\\\\]");
-                if (peek("[bnrt\\'\\\"\\\\]")) {
-                    match("[bnrt\\'\\\"\\\\]");
-                } else {
-                    indexIncrement = 0;
+    private Token.Type scanNumber() {
+        if (peekChar(0, '-')) {
+            chars.advance();
+            if (!peekClass(0, NONZERO_DIGIT)) {
+                //a lone minus is the subtraction operator
+                return Token.Type.OPERATOR;
+            }
+        } else if (peekChar(0, '0')) {
+            chars.advance();
+            return Token.Type.INTEGER;
+        } else if (!peekClass(0, NONZERO_DIGIT)) {
+            return Token.Type.INTEGER;
+        }
+        chars.advance();
+        while (peekClass(0, DIGIT)) {
+            chars.advance();
+        }
+        if (peekChar(0, '.') && peekClass(1, DIGIT)) {
+            chars.advance();
+            while (peekClass(0, DIGIT)) {
+                chars.advance();
+            }
+            return Token.Type.DECIMAL;
+        }
+        return Token.Type.INTEGER;
+    }
+
+    private Token.Type scanCharacter() {
+        if (!(peekChar(0, '\'') && peekClass(1, ANY))) {
+            if (peekChar(0, '\'')) {
+                chars.advance();
+            }
+            return Token.Type.OPERATOR;
+        }
+        chars.advance();
+        if (peekChar(0, '\\') && peekClass(1, ESCAPE) && peekChar(2, '\'')) {
+            chars.advance();
+            chars.advance();
+            chars.advance();
+            return Token.Type.CHARACTER;
+        } else if (peekNeither(0, '\'', '\\') && peekChar(1, '\'')) {
+            chars.advance();
+            chars.advance();
+            return Token.Type.CHARACTER;
+        } else if (peekChar(0, '\'')) {
+            throw new ParseException("NOT ALLOWED", chars.index);
+        } else {
+            throw new ParseException("NOT ALLOWED", chars.index + 1);
+        }
+    }
+
+    private Token.Type scanString() {
+        if (!(peekChar(0, '"') && peekClass(1, ANY))) {
+            if (peekChar(0, '"')) {
+                chars.advance();
+            }
+            return Token.Type.OPERATOR;
+        }
+        chars.advance();
+        while (peekClass(0, ANY)) {
+            if (peekChar(0, '\\')) {
+                chars.advance();
+                if (!peekClass(0, ESCAPE)) {
                     break;
                 }
+                chars.advance();
+            } else if (peekChar(0, '"')) {
+                chars.advance();
+                return Token.Type.STRING;
             } else {
-                if (peek("[^\\\"\\\\]")) {
-                    match(".");
-                } else if (peek("[\\\"]")) {
-                    match(".");
-                    return chars.emit(Token.Type.STRING);
-                } else {
-                    indexIncrement = 0;
-                    break;
-                }
+                chars.advance();
+            }
+        }
+        throw new ParseException("NOT ALLOWED", chars.index);
+    }
 
+    private Token.Type scanOperator() {
+        //!= and == both end in =, while && and || repeat their first character
+        if (peekClass(0, COMPOUND_START) && peekChar(1, chars.get(0) == '!' ? '=' : chars.get(0))) {
+            chars.advance();
+            chars.advance();
+        } else if (chars.has(0)) {
+            chars.advance();
+        }
+        return Token.Type.OPERATOR;
+    }
+
+    /**
+     * Skips the rest of an invalid literal opened with {@code quote}, through
+     * the closing quote if there is one on the same line or otherwise up to
+     * the end of the line. Escapes are skipped as a pair, so an escaped quote
+     * doesn't end the literal.
+     */
+    private void recover(char quote) {
+        while (peekClass(0, ANY)) {
+            if (peekChar(0, '\\') && peekClass(1, ANY)) {
+                chars.advance();
+            } else if (peekChar(0, quote)) {
+                chars.advance();
+                break;
             }
+            chars.advance();
         }
-        throw new ParseException("NOT ALLOWED", chars.index += indexIncrement);
+        chars.skip();
     }
 
-    public void lexEscape() {
-        throw new UnsupportedOperationException(); //TODO
+    /**
+     * Returns true if there is a character at the given offset and its class
+     * (see {@link #classOf(char)}) shares a bit with the given mask.
+     */
+    private boolean peekClass(int offset, int mask) {
+        return chars.has(offset) && (classOf(chars.get(offset)) & mask) != 0;
     }
 
-    public Token lexOperator() {
+    /**
+     * Returns true if there is a character at the given offset and it is
+     * exactly {@code c}.
+     */
+    private boolean peekChar(int offset, char c) {
+        return chars.has(offset) && chars.get(offset) == c;
+    }
+
+    /**
+     * Returns true if there is a character at the given offset and it is
+     * neither {@code a} nor {@code b}, as with the regex {@code [^ab]}.
+     */
+    private boolean peekNeither(int offset, char a, char b) {
+        return chars.has(offset) && chars.get(offset) != a && chars.get(offset) != b;
+    }
+
+    /**
+     * Returns the character class bits of {@code c}. Everything outside of
+     * ASCII is only ever {@link #ANY}, except for the unicode line terminators
+     * which (like {@code \n} and {@code \r}) are not matched by the regex
+     * {@code .} the lexer was originally written against.
+     */
+    static int classOf(char c) {
+        if (c < CLASSES.length) {
+            return CLASSES[c];
+        } else if (c == '\u0085' || c == '\u2028' || c == '\u2029') {
+            return 0;
+        }
+        return ANY;
+    }
+
+    /**
+     * Returns the characters of {@code chars} from {@code start} to {@code
+     * end} with each escape replaced by the character it stands for, in one
+     * pass. The escapes must be valid, which they are in the contents of a
+     * lexed string or character literal. If there are none, the characters
+     * are copied as is.
+     */
+    static String unescape(CharSequence chars, int start, int end) {
+        int index = start;
+        while (index < end && chars.charAt(index) != '\\') {
+            index++;
+        }
+        if (index == end) {
+            return chars.subSequence(start, end).toString();
+        }
+        StringBuilder builder = new StringBuilder(end - start - 1);
+        builder.append(chars, start, index);
+        while (index < end) {
+            char c = chars.charAt(index++);
+            if (c == '\\') {
+                switch (c = chars.charAt(index++)) {
+                    case 'b': c = '\b'; break;
+                    case 'n': c = '\n'; break;
+                    case 'r': c = '\r'; break;
+                    case 't': c = '\t'; break;
+                    default: break; //quotes and backslashes stand for themselves
+                }
+            }
+            builder.append(c);
+        }
+        return builder.toString();
+    }
 
-        if (peek("[!=]", "=") || peek("&", "&") || peek("[|]", "[|]")) {
-            match(".", ".");
+    /**
+     * Decodes the UTF-8 sequence starting at {@code position}, returning the
+     * code point shifted left by three bits with the number of bytes read in
+     * the low three bits. Malformed sequences decode to {@code U+FFFD}, one
+     * byte at a time.
+     */
+    static int decode(ByteBuffer bytes, int position) {
+        int lead = bytes.get(position) & 0xFF;
+        int length;
+        int codePoint;
+        if (lead < 0x80) {
+            return lead << 3 | 1;
+        } else if (lead >= 0xC2 && lead < 0xE0) {
+            length = 2;
+            codePoint = lead & 0x1F;
+        } else if (lead >= 0xE0 && lead < 0xF0) {
+            length = 3;
+            codePoint = lead & 0x0F;
+        } else if (lead >= 0xF0 && lead < 0xF5) {
+            length = 4;
+            codePoint = lead & 0x07;
         } else {
-            match(".");
+            return 0xFFFD << 3 | 1;
+        }
+        if (position + length > bytes.limit()) {
+            return 0xFFFD << 3 | 1;
+        }
+        for (int i = 1; i < length; i++) {
+            int next = bytes.get(position + i) & 0xFF;
+            if ((next & 0xC0) != 0x80) {
+                return 0xFFFD << 3 | 1;
+            }
+            codePoint = codePoint << 6 | (next & 0x3F);
         }
-        return chars.emit(Token.Type.OPERATOR);
+        if ((length == 3 && (codePoint < 0x800 || Character.isSurrogate((char) codePoint)))
+                || (length == 4 && (codePoint < 0x10000 || codePoint > Character.MAX_CODE_POINT))) {
+            return 0xFFFD << 3 | 1;
+        }
+        return codePoint << 3 | length;
     }
 
     /**
@@ -251,6 +772,47 @@ public final class Lexer {
         return peek;
     }
 
+    /**
+     * A line and column in the input, both starting from 1. Columns count
+     * chars, so a character outside the BMP takes two.
+     */
+    public static final class Position {
+
+        private final int line;
+        private final int column;
+
+        public Position(int line, int column) {
+            this.line = line;
+            this.column = column;
+        }
+
+        public int getLine() {
+            return line;
+        }
+
+        public int getColumn() {
+            return column;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof Position
+                    && line == ((Position) obj).line
+                    && column == ((Position) obj).column;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * line + column;
+        }
+
+        @Override
+        public String toString() {
+            return line + ":" + column;
+        }
+
+    }
+
     /**
      * A helper class maintaining the input string, current index of the char
      * stream, and the current length of the token being matched.
@@ -258,23 +820,46 @@ public final class Lexer {
      * You should rely on peek/match for state management in nearly all cases.
      * The only field you need to access is {@link #index} for any {@link
      * ParseException} which is thrown.
+     * <p>
+     * Other sources of characters extend this class and override the
+     * package-private {@code available}, {@code charAt}, {@code token} and
+     * {@code release} methods, which all work with absolute positions.
      */
-    public static final class CharStream {
+    public static class CharStream {
 
         private final String input;
+        private final int end;
+        private final SymbolTable symbols;
+        private int firstLine; //the line starting at lines[0]
+        private int[] lines = new int[16]; //the position each line starts at
+        private int lineCount = 1;
         private int index = 0;
         private int length = 0;
 
         public CharStream(String input) {
+            this(input, 0, input.length(), 1, new SymbolTable());
+        }
+
+        /**
+         * Creates a char stream over only the characters of {@code input} from
+         * {@code start} to {@code end}, with {@code start} on line {@code
+         * line}, interning literals in {@code symbols}.
+         */
+        CharStream(String input, int start, int end, int line, SymbolTable symbols) {
             this.input = input;
+            this.index = start;
+            this.end = end;
+            this.firstLine = line;
+            this.lines[0] = start;
+            this.symbols = symbols;
         }
 
         public boolean has(int offset) {
-            return index + offset < input.length();
+            return available(index + offset);
         }
 
         public char get(int offset) {
-            return input.charAt(index + offset);
+            return charAt(index + offset);
         }
 
         public void advance() {
@@ -284,12 +869,285 @@ public final class Lexer {
 
         public void skip() {
             length = 0;
+            release(index);
         }
 
         public Token emit(Token.Type type) {
             int start = index - length;
+            Token token = token(type, start, index);
             skip();
-            return new Token(type, input.substring(start, index), start);
+            return token;
+        }
+
+        /**
+         * Records that a new line starts at {@code position}. If the table is
+         * full and the stream is {@link #bounded()}, the lines before the one
+         * the lexer is on are dropped instead of growing it.
+         */
+        void newline(int position) {
+            if (lineCount == lines.length && bounded()) {
+                int current = lineCount - 1;
+                lines[0] = lines[current];
+                firstLine += current;
+                lineCount = 1;
+            }
+            if (lineCount == lines.length) {
+                lines = Arrays.copyOf(lines, 2 * lineCount);
+            }
+            lines[lineCount++] = position;
+        }
+
+        /**
+         * Returns the number of line starts the table has room for.
+         */
+        int lineCapacity() {
+            return lines.length;
+        }
+
+        /**
+         * Returns the line of the current token, which like every token is on
+         * the last line recorded.
+         */
+        int line() {
+            return firstLine + lineCount - 1;
+        }
+
+        /**
+         * Returns the column of {@code position} on the current line.
+         */
+        int column(int position) {
+            return position - lines[lineCount - 1] + 1;
+        }
+
+        Position position(int position) {
+            if (bounded() && position < lines[0]) {
+                throw new IllegalArgumentException("The line of position " + position + " has been discarded.");
+            }
+            int line = Arrays.binarySearch(lines, 0, lineCount, position);
+            if (line < 0) {
+                line = Math.max(-line - 2, 0);
+            }
+            return new Position(firstLine + line, position - lines[line] + 1);
+        }
+
+        /**
+         * Returns true if there is a character at the given position.
+         */
+        boolean available(int position) {
+            return position < end;
+        }
+
+        /**
+         * Returns the character at the given position, which must be available.
+         */
+        char charAt(int position) {
+            return input.charAt(position);
+        }
+
+        /**
+         * Creates the token spanning from {@code start} to {@code end}.
+         */
+        Token token(Token.Type type, int start, int end) {
+            return new Token(type, literal(type, input, start, end), start, line(), column(start));
+        }
+
+        /**
+         * Returns the literal from {@code start} to {@code end} of {@code
+         * chars}, which is interned for identifiers and operators.
+         */
+        String literal(Token.Type type, CharSequence chars, int start, int end) {
+            if (type == Token.Type.IDENTIFIER || type == Token.Type.OPERATOR) {
+                return symbols.intern(chars, start, end);
+            }
+            return chars.subSequence(start, end).toString();
+        }
+
+        /**
+         * Signals that characters before {@code position} will not be accessed
+         * again, allowing them to be discarded.
+         */
+        void release(int position) {}
+
+        /**
+         * Returns true if the stream only holds a bounded part of its input,
+         * in which case it doesn't keep the start of every line either.
+         */
+        boolean bounded() {
+            return false;
+        }
+
+    }
+
+    /**
+     * A char stream reading from a {@link Reader} into a buffer, which holds
+     * the current token and the lookahead past it. When the buffer runs out,
+     * characters before the current token are discarded to make room; it only
+     * grows if a single token does not fit.
+     */
+    private static final class ReaderStream extends CharStream {
+
+        private final Reader reader;
+        private char[] buffer;
+        private int offset = 0; //position of buffer[0]
+        private int limit = 0; //number of characters read into the buffer
+        private int mark = 0; //position of the start of the current token
+        private boolean eof = false;
+
+        private ReaderStream(Reader reader, int capacity, SymbolTable symbols) {
+            super(null, 0, 0, 1, symbols);
+            this.reader = reader;
+            this.buffer = new char[capacity];
+        }
+
+        @Override
+        boolean available(int position) {
+            while (position - offset >= limit && !eof) {
+                fill();
+            }
+            return position - offset < limit;
+        }
+
+        @Override
+        char charAt(int position) {
+            return buffer[position - offset];
+        }
+
+        @Override
+        Token token(Token.Type type, int start, int end) {
+            return new Token(type, literal(type, CharBuffer.wrap(buffer), start - offset, end - offset), start, line(), column(start));
+        }
+
+        @Override
+        void release(int position) {
+            mark = position;
+        }
+
+        @Override
+        boolean bounded() {
+            return true;
+        }
+
+        private void fill() {
+            int keep = mark - offset;
+            if (keep > 0) {
+                System.arraycopy(buffer, keep, buffer, 0, limit - keep);
+                limit -= keep;
+                offset = mark;
+            }
+            if (limit == buffer.length) {
+                char[] grown = new char[buffer.length * 2];
+                System.arraycopy(buffer, 0, grown, 0, limit);
+                buffer = grown;
+            }
+            try {
+                int read = reader.read(buffer, limit, buffer.length - limit);
+                if (read == -1) {
+                    eof = true;
+                } else {
+                    limit += read;
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+    }
+
+    /**
+     * A char stream decoding UTF-8 from a byte buffer as characters are
+     * requested. Only a small window past the current character is decoded at
+     * a time, since the lexer never looks further ahead than that, and tokens
+     * are created over the bytes they span instead of copying them.
+     */
+    private static final class MappedStream extends CharStream {
+
+        private static final int WINDOW = 8;
+
+        private final ByteBuffer bytes;
+        private final char[] window = new char[WINDOW];
+        private final int[] starts = new int[WINDOW]; //byte position of each character
+        private final boolean[] lows = new boolean[WINDOW]; //second half of a surrogate pair
+        private int decoded = 0; //number of characters decoded
+        private int position = 0; //byte position after the last decoded character
+        private int mark = 0; //byte position of the start of the current token
+        private boolean markLow = false;
+
+        private MappedStream(ByteBuffer bytes) {
+            super(null, 0, 0, 1, new SymbolTable());
+            this.bytes = bytes;
+        }
+
+        @Override
+        boolean available(int index) {
+            while (index >= decoded && position < bytes.limit()) {
+                decodeNext();
+            }
+            return index < decoded;
+        }
+
+        @Override
+        char charAt(int index) {
+            return window[index & (WINDOW - 1)];
+        }
+
+        @Override
+        Token token(Token.Type type, int start, int end) {
+            int endPosition = startOf(end);
+            if (markLow || lowAt(end)) {
+                //the token splits a surrogate pair, so the bytes alone can't represent
+                //it; this is only ever a one or two character operator in the window
+                StringBuilder builder = new StringBuilder();
+                for (int i = start; i < end; i++) {
+                    builder.append(charAt(i));
+                }
+                return new Token(type, builder.toString(), start, line(), column(start));
+            }
+            return new Token(type, bytes, mark, endPosition, start, line(), column(start));
+        }
+
+        @Override
+        void release(int index) {
+            mark = startOf(index);
+            markLow = lowAt(index);
+        }
+
+        @Override
+        boolean bounded() {
+            return true;
+        }
+
+        private int startOf(int index) {
+            return index < decoded ? starts[index & (WINDOW - 1)] : position;
+        }
+
+        private boolean lowAt(int index) {
+            return index < decoded && lows[index & (WINDOW - 1)];
+        }
+
+        private void decodeNext() {
+            int lead = bytes.get(position);
+            if (lead >= 0) {
+                put((char) lead, position, false);
+                position++;
+                return;
+            }
+            int sequence = Lexer.decode(bytes, position);
+            int codePoint = sequence >>> 3;
+            if (Character.isBmpCodePoint(codePoint)) {
+                put((char) codePoint, position, false);
+            } else {
+                put(Character.highSurrogate(codePoint), position, false);
+                put(Character.lowSurrogate(codePoint), position, true);
+            }
+            position += sequence & 7;
+        }
+
+        private void put(char c, int start, boolean low) {
+            int slot = decoded & (WINDOW - 1);
+            window[slot] = c;
+            starts[slot] = start;
+            lows[slot] = low;
+            decoded++;
         }
 
     }
@@ -0,0 +1,520 @@
+package plc.project;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.RoundingMode;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+
+/**
+ * Simplifies an AST which has been analyzed by the {@link Analyzer}, returning
+ * the simplified AST. Binary expressions of literals are folded into a
+ * literal, identities such as {@code x * 1} and {@code TRUE && x} are reduced
+ * to their other operand, and an {@code IF} with a constant condition is
+ * replaced by the branch it takes.
+ * <p>
+ * Folding computes the same value the {@link Interpreter} would, and leaves
+ * the expression alone if that would throw (as with a division by zero) or
+ * the result isn't a valid literal (as with an integer outside of the range of
+ * an {@code int}), so it is evaluated as before by both the interpreter and
+ * the {@link Generator}. An operand is only dropped (as in {@code x * 0}) if
+ * evaluating it can't throw or call a function.
+ * <p>
+ * Nodes which don't change are returned as they are, and new nodes have the
+ * same types, variables, functions and addresses as those they replace.
+ */
+public final class Optimizer implements Ast.Visitor<Ast> {
+
+    /**
+     * The largest exponent of {@code ^} which is folded, so folding can't
+     * compute a huge power only to find out it isn't a valid literal.
+     */
+    private static final int MAX_EXPONENT = 64;
+
+    /**
+     * The number of scopes between the current one and the scope of the
+     * function (or source), and those of them which belonged to an {@code IF}
+     * replaced by its statements. Accesses to variables outside of such a
+     * scope now have one scope less to go up.
+     */
+    private int level = 0;
+    private final List<Integer> inlined = new ArrayList<>();
+
+    @Override
+    public Ast.Source visit(Ast.Source ast) {
+        List<Ast.Global> globals = new ArrayList<>();
+        boolean changed = false;
+        for (Ast.Global global : ast.getGlobals()) {
+            globals.add(visit(global));
+            changed |= globals.get(globals.size() - 1) != global;
+        }
+        List<Ast.Function> functions = new ArrayList<>();
+        for (Ast.Function function : ast.getFunctions()) {
+            functions.add(visit(function));
+            changed |= functions.get(functions.size() - 1) != function;
+        }
+        return changed ? new Ast.Source(globals, functions) : ast;
+    }
+
+    @Override
+    public Ast.Global visit(Ast.Global ast) {
+        Optional<Ast.Expression> value = optimize(ast.getValue());
+        if (value == ast.getValue()) {
+            return ast;
+        }
+        Ast.Global global = new Ast.Global(ast.getName(), ast.getTypeName(), ast.getMutable(), value);
+        global.setVariable(ast.getVariable());
+        return global;
+    }
+
+    @Override
+    public Ast.Function visit(Ast.Function ast) {
+        List<Ast.Statement> statements = block(ast.getStatements(), false);
+        if (statements == ast.getStatements()) {
+            return ast;
+        }
+        Ast.Function function = new Ast.Function(ast.getName(), ast.getParameters(), ast.getParameterTypeNames(), ast.getReturnTypeName(), statements);
+        function.setFunction(ast.getFunction());
+        return function;
+    }
+
+    @Override
+    public Ast.Statement visit(Ast.Statement.Expression ast) {
+        Ast.Expression expression = optimize(ast.getExpression());
+        return expression == ast.getExpression() ? ast : new Ast.Statement.Expression(expression);
+    }
+
+    @Override
+    public Ast.Statement visit(Ast.Statement.Declaration ast) {
+        Optional<Ast.Expression> value = optimize(ast.getValue());
+        if (value == ast.getValue()) {
+            return ast;
+        }
+        Ast.Statement.Declaration declaration = new Ast.Statement.Declaration(ast.getName(), ast.getTypeName(), value);
+        declaration.setVariable(ast.getVariable());
+        declaration.setSlot(ast.getSlot());
+        return declaration;
+    }
+
+    @Override
+    public Ast.Statement visit(Ast.Statement.Assignment ast) {
+        Ast.Expression receiver = optimize(ast.getReceiver());
+        Ast.Expression value = optimize(ast.getValue());
+        return receiver == ast.getReceiver() && value == ast.getValue() ? ast : new Ast.Statement.Assignment(receiver, value);
+    }
+
+    /**
+     * Optimizes the condition and both branches, but keeps the {@code IF}
+     * even if the condition is constant, since only the enclosing block can
+     * replace it with its statements (see {@link #block(List, boolean)}).
+     */
+    @Override
+    public Ast.Statement visit(Ast.Statement.If ast) {
+        return branches(ast, optimize(ast.getCondition()));
+    }
+
+    @Override
+    public Ast.Statement visit(Ast.Statement.Switch ast) {
+        Ast.Expression condition = optimize(ast.getCondition());
+        List<Ast.Statement.Case> cases = new ArrayList<>();
+        boolean changed = condition != ast.getCondition();
+        for (Ast.Statement.Case caseStatement : ast.getCases()) {
+            cases.add(visit(caseStatement));
+            changed |= cases.get(cases.size() - 1) != caseStatement;
+        }
+        return changed ? new Ast.Statement.Switch(condition, cases) : ast;
+    }
+
+    @Override
+    public Ast.Statement.Case visit(Ast.Statement.Case ast) {
+        Optional<Ast.Expression> value = optimize(ast.getValue());
+        List<Ast.Statement> statements = scope(ast.getStatements(), false);
+        return value == ast.getValue() && statements == ast.getStatements() ? ast : new Ast.Statement.Case(value, statements);
+    }
+
+    @Override
+    public Ast.Statement visit(Ast.Statement.While ast) {
+        Ast.Expression condition = optimize(ast.getCondition());
+        List<Ast.Statement> statements = scope(ast.getStatements(), false);
+        return condition == ast.getCondition() && statements == ast.getStatements() ? ast : new Ast.Statement.While(condition, statements);
+    }
+
+    @Override
+    public Ast.Statement visit(Ast.Statement.Return ast) {
+        Ast.Expression value = optimize(ast.getValue());
+        return value == ast.getValue() ? ast : new Ast.Statement.Return(value);
+    }
+
+    @Override
+    public Ast.Expression visit(Ast.Expression.Literal ast) {
+        return ast;
+    }
+
+    /**
+     * Optimizes the grouped expression, dropping the group if it is no longer
+     * a binary expression (which is the only one the {@link Analyzer} allows
+     * in a group, and the only one needing parentheses).
+     */
+    @Override
+    public Ast.Expression visit(Ast.Expression.Group ast) {
+        Ast.Expression expression = optimize(ast.getExpression());
+        if (!(expression instanceof Ast.Expression.Binary)) {
+            return expression;
+        } else if (expression == ast.getExpression()) {
+            return ast;
+        }
+        Ast.Expression.Group group = new Ast.Expression.Group(expression);
+        group.setType(expression.getType());
+        return group;
+    }
+
+    @Override
+    public Ast.Expression visit(Ast.Expression.Binary ast) {
+        Ast.Expression left = optimize(ast.getLeft());
+        Ast.Expression right = optimize(ast.getRight());
+        Ast.Expression folded = fold(ast.getOperator(), left, right);
+        if (folded == null) {
+            folded = simplify(ast.getOperator(), left, right);
+        }
+        if (folded != null) {
+            return folded;
+        } else if (left == ast.getLeft() && right == ast.getRight()) {
+            return ast;
+        }
+        Ast.Expression.Binary binary = new Ast.Expression.Binary(ast.getOperator(), left, right);
+        binary.setType(ast.getType());
+        return binary;
+    }
+
+    @Override
+    public Ast.Expression visit(Ast.Expression.Access ast) {
+        Optional<Ast.Expression> offset = optimize(ast.getOffset());
+        int removed = 0;
+        if (!inlined.isEmpty()) {
+            for (int scope : inlined) {
+                if (scope > level - ast.getDepth()) {
+                    removed++;
+                }
+            }
+        }
+        if (offset == ast.getOffset() && removed == 0) {
+            return ast;
+        }
+        Ast.Expression.Access access = new Ast.Expression.Access(offset, ast.getName());
+        access.setVariable(ast.getVariable());
+        access.setAddress(ast.getDepth() - removed, ast.getSlot());
+        return access;
+    }
+
+    @Override
+    public Ast.Expression visit(Ast.Expression.Function ast) {
+        List<Ast.Expression> arguments = new ArrayList<>();
+        boolean changed = false;
+        for (Ast.Expression argument : ast.getArguments()) {
+            arguments.add(optimize(argument));
+            changed |= arguments.get(arguments.size() - 1) != argument;
+        }
+        if (!changed) {
+            return ast;
+        }
+        Ast.Expression.Function function = new Ast.Expression.Function(ast.getName(), arguments);
+        function.setFunction(ast.getFunction());
+        return function;
+    }
+
+    @Override
+    public Ast.Expression visit(Ast.Expression.PlcList ast) {
+        List<Ast.Expression> values = new ArrayList<>();
+        boolean changed = false;
+        for (Ast.Expression value : ast.getValues()) {
+            values.add(optimize(value));
+            changed |= values.get(values.size() - 1) != value;
+        }
+        if (!changed) {
+            return ast;
+        }
+        Ast.Expression.PlcList list = new Ast.Expression.PlcList(values);
+        list.setType(ast.getType());
+        return list;
+    }
+
+    private Ast.Expression optimize(Ast.Expression expression) {
+        return (Ast.Expression) visit(expression);
+    }
+
+    private Optional<Ast.Expression> optimize(Optional<Ast.Expression> expression) {
+        if (!expression.isPresent()) {
+            return expression;
+        }
+        Ast.Expression optimized = optimize(expression.get());
+        return optimized == expression.get() ? expression : Optional.of(optimized);
+    }
+
+    /**
+     * Optimizes the statements of a block in a scope of its own.
+     */
+    private List<Ast.Statement> scope(List<Ast.Statement> statements, boolean required) {
+        level++;
+        try {
+            return block(statements, required);
+        } finally {
+            level--;
+        }
+    }
+
+    /**
+     * Optimizes the statements of a block, returning the same list if none of
+     * them changed. An {@code IF} with a constant condition is replaced by the
+     * statements of the branch it takes, unless that declares a variable
+     * (which needs the branch's scope), in which case it becomes an {@code IF
+     * TRUE} without the other branch. If the block is {@code required} to
+     * have a statement (as a branch of an {@code IF} is when the other branch
+     * is empty, since the {@link Analyzer} rejects an {@code IF} with both
+     * empty), the last {@code IF} is kept if replacing it would leave the
+     * block empty.
+     */
+    private List<Ast.Statement> block(List<Ast.Statement> statements, boolean required) {
+        List<Ast.Statement> optimized = new ArrayList<>();
+        boolean changed = false;
+        for (int i = 0; i < statements.size(); i++) {
+            Ast.Statement statement = statements.get(i);
+            if (!(statement instanceof Ast.Statement.If)) {
+                optimized.add((Ast.Statement) visit(statement));
+                changed |= optimized.get(optimized.size() - 1) != statement;
+                continue;
+            }
+            Ast.Statement.If ast = (Ast.Statement.If) statement;
+            Ast.Expression condition = optimize(ast.getCondition());
+            if (!isLiteral(condition, Boolean.class)) {
+                optimized.add(branches(ast, condition));
+                changed |= optimized.get(optimized.size() - 1) != statement;
+                continue;
+            }
+            boolean value = (Boolean) ((Ast.Expression.Literal) condition).getLiteral();
+            List<Ast.Statement> taken = value ? ast.getThenStatements() : ast.getElseStatements();
+            boolean last = required && optimized.isEmpty() && i == statements.size() - 1;
+            if ((value && ast.getElseStatements().isEmpty() && taken.stream().anyMatch(Ast.Statement.Declaration.class::isInstance))
+                    || (last && taken.isEmpty())) {
+                //already as simple as it can be
+                optimized.add(branches(ast, condition));
+                changed |= optimized.get(optimized.size() - 1) != statement;
+                continue;
+            }
+            changed = true;
+            if (taken.stream().anyMatch(Ast.Statement.Declaration.class::isInstance)) {
+                optimized.add(new Ast.Statement.If(literal(Boolean.TRUE, Environment.Type.BOOLEAN), scope(taken, true), new ArrayList<>()));
+            } else if (!taken.isEmpty()) {
+                inlined.add(level + 1);
+                try {
+                    optimized.addAll(scope(taken, last));
+                } finally {
+                    inlined.remove(inlined.size() - 1);
+                }
+            }
+        }
+        return changed ? optimized : statements;
+    }
+
+    /**
+     * Optimizes both branches of an {@code IF} which is kept. An empty else
+     * branch stays empty, so the then branch must keep a statement, and if
+     * the then branch ends up empty the else branch must.
+     */
+    private Ast.Statement.If branches(Ast.Statement.If ast, Ast.Expression condition) {
+        List<Ast.Statement> thenStatements = scope(ast.getThenStatements(), ast.getElseStatements().isEmpty());
+        List<Ast.Statement> elseStatements = scope(ast.getElseStatements(), thenStatements.isEmpty());
+        if (condition == ast.getCondition() && thenStatements == ast.getThenStatements() && elseStatements == ast.getElseStatements()) {
+            return ast;
+        }
+        return new Ast.Statement.If(condition, thenStatements, elseStatements);
+    }
+
+    /**
+     * Returns the literal {@code left operator right} evaluates to if both are
+     * literals, or {@code null} if they aren't or the result can't be folded.
+     */
+    private static Ast.Expression fold(String operator, Ast.Expression left, Ast.Expression right) {
+        if (!(left instanceof Ast.Expression.Literal) || !(right instanceof Ast.Expression.Literal)) {
+            return null;
+        }
+        Object l = ((Ast.Expression.Literal) left).getLiteral();
+        Object r = ((Ast.Expression.Literal) right).getLiteral();
+        switch (operator) {
+            case "&&":
+            case "||":
+                if (l instanceof Boolean && r instanceof Boolean) {
+                    boolean value = operator.equals("&&") ? (Boolean) l && (Boolean) r : (Boolean) l || (Boolean) r;
+                    return literal(value, Environment.Type.BOOLEAN);
+                }
+                return null;
+            case "<":
+            case ">":
+                if (l instanceof Comparable && r != null && l.getClass() == r.getClass()) {
+                    @SuppressWarnings("unchecked")
+                    int comparison = ((Comparable<Object>) l).compareTo(r);
+                    return literal(operator.equals("<") ? comparison < 0 : comparison > 0, Environment.Type.BOOLEAN);
+                }
+                return null;
+            case "==":
+                return literal(Objects.equals(l, r), Environment.Type.BOOLEAN);
+            case "!=":
+                return literal(!Objects.equals(l, r), Environment.Type.BOOLEAN);
+            case "+":
+                if (l instanceof String && r instanceof String) {
+                    return literal(((String) l).concat((String) r), Environment.Type.STRING);
+                }
+                return foldArithmetic(operator, l, r);
+            default:
+                return foldArithmetic(operator, l, r);
+        }
+    }
+
+    /**
+     * Returns the literal of an arithmetic operator's result, or {@code null}
+     * if computing it throws (such as a division by zero, which is left to be
+     * evaluated) or it isn't a valid literal.
+     */
+    private static Ast.Expression foldArithmetic(String operator, Object l, Object r) {
+        try {
+            return number(arithmetic(operator, l, r));
+        } catch (ArithmeticException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns the result of an arithmetic operator as the {@link Interpreter}
+     * computes it, or {@code null} if it isn't one for these operands.
+     */
+    private static Object arithmetic(String operator, Object l, Object r) {
+        if (l instanceof BigInteger && r instanceof BigInteger) {
+            BigInteger left = (BigInteger) l;
+            BigInteger right = (BigInteger) r;
+            switch (operator) {
+                case "+": return left.add(right);
+                case "-": return left.subtract(right);
+                case "*": return left.multiply(right);
+                case "/": return left.divide(right);
+                case "^": return right.signum() >= 0 && right.compareTo(BigInteger.valueOf(MAX_EXPONENT)) <= 0 ? left.pow(right.intValue()) : null;
+                default: return null;
+            }
+        } else if (l instanceof BigDecimal && r instanceof BigDecimal) {
+            BigDecimal left = (BigDecimal) l;
+            BigDecimal right = (BigDecimal) r;
+            switch (operator) {
+                case "+": return left.add(right);
+                case "-": return left.subtract(right);
+                case "*": return left.multiply(right);
+                case "/": return left.divide(right, RoundingMode.HALF_EVEN);
+                default: return null;
+            }
+        } else if (l instanceof BigDecimal && r instanceof BigInteger && operator.equals("^")) {
+            BigInteger right = (BigInteger) r;
+            return right.signum() >= 0 && right.compareTo(BigInteger.valueOf(MAX_EXPONENT)) <= 0 ? ((BigDecimal) l).pow(right.intValue()) : null;
+        }
+        return null;
+    }
+
+    /**
+     * Returns a literal for a number if it is in the range the {@link
+     * Analyzer} allows for literals, and otherwise {@code null}.
+     */
+    private static Ast.Expression number(Object value) {
+        if (value instanceof BigInteger && ((BigInteger) value).bitLength() < Integer.SIZE) {
+            return literal(value, Environment.Type.INTEGER);
+        } else if (value instanceof BigDecimal && Double.isFinite(((BigDecimal) value).doubleValue())) {
+            return literal(value, Environment.Type.DECIMAL);
+        }
+        return null;
+    }
+
+    /**
+     * Returns the operand {@code left operator right} is equal to if one is
+     * an identity (or absorbing element) of the operator, or {@code null} if
+     * it can't be simplified. Only integers are simplified this way, since a
+     * decimal operation also changes its scale.
+     */
+    private static Ast.Expression simplify(String operator, Ast.Expression left, Ast.Expression right) {
+        switch (operator) {
+            case "&&":
+                if (isLiteral(left, Boolean.class)) {
+                    return (Boolean) ((Ast.Expression.Literal) left).getLiteral() ? right : left;
+                } else if (isLiteral(right, Boolean.class)) {
+                    return (Boolean) ((Ast.Expression.Literal) right).getLiteral() ? left : isPure(left) ? right : null;
+                }
+                return null;
+            case "||":
+                if (isLiteral(left, Boolean.class)) {
+                    return (Boolean) ((Ast.Expression.Literal) left).getLiteral() ? left : right;
+                } else if (isLiteral(right, Boolean.class)) {
+                    return (Boolean) ((Ast.Expression.Literal) right).getLiteral() ? isPure(left) ? right : null : left;
+                }
+                return null;
+            case "+":
+                if (isInteger(left, 0) && right.getType() == Environment.Type.INTEGER) {
+                    return right;
+                }
+                return rightIdentity(left, right, 0);
+            case "-":
+                return rightIdentity(left, right, 0);
+            case "*":
+                if (isInteger(left, 1) && right.getType() == Environment.Type.INTEGER) {
+                    return right;
+                } else if (isInteger(right, 0) && left.getType() == Environment.Type.INTEGER && isPure(left)) {
+                    return right;
+                } else if (isInteger(left, 0) && right.getType() == Environment.Type.INTEGER && isPure(right)) {
+                    return left;
+                }
+                return rightIdentity(left, right, 1);
+            case "/":
+            case "^":
+                return rightIdentity(left, right, 1);
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Returns {@code left} if {@code right} is the integer {@code identity},
+     * or {@code null} if it isn't.
+     */
+    private static Ast.Expression rightIdentity(Ast.Expression left, Ast.Expression right, int identity) {
+        return isInteger(right, identity) && left.getType() == Environment.Type.INTEGER ? left : null;
+    }
+
+    private static boolean isLiteral(Ast.Expression expression, Class<?> type) {
+        return expression instanceof Ast.Expression.Literal && type.isInstance(((Ast.Expression.Literal) expression).getLiteral());
+    }
+
+    private static boolean isInteger(Ast.Expression expression, int value) {
+        return isLiteral(expression, BigInteger.class) && ((Ast.Expression.Literal) expression).getLiteral().equals(BigInteger.valueOf(value));
+    }
+
+    /**
+     * Returns true if evaluating the expression can't throw or call a
+     * function, so leaving it out doesn't change what the program does.
+     */
+    private static boolean isPure(Ast.Expression expression) {
+        if (expression instanceof Ast.Expression.Literal) {
+            return true;
+        } else if (expression instanceof Ast.Expression.Access) {
+            return !((Ast.Expression.Access) expression).getOffset().isPresent();
+        } else if (expression instanceof Ast.Expression.Group) {
+            return isPure(((Ast.Expression.Group) expression).getExpression());
+        } else if (expression instanceof Ast.Expression.Binary) {
+            Ast.Expression.Binary binary = (Ast.Expression.Binary) expression;
+            return !binary.getOperator().equals("/") && !binary.getOperator().equals("^")
+                    && isPure(binary.getLeft()) && isPure(binary.getRight());
+        }
+        return false;
+    }
+
+    private static Ast.Expression.Literal literal(Object value, Environment.Type type) {
+        Ast.Expression.Literal literal = new Ast.Expression.Literal(value);
+        literal.setType(type);
+        return literal;
+    }
+
+}
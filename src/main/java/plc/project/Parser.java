@@ -3,8 +3,16 @@ package plc.project;
 import java.math.BigDecimal;
 import java.math.BigInteger;
 import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Optional;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Supplier;
 
 /**
  * The parser takes the sequence of tokens emitted by the lexer and turns that
@@ -21,14 +29,124 @@ import java.util.Optional;
  */
 public final class Parser {
 
+    /**
+     * The binding powers of the levels of binary operators, from loosest to
+     * tightest. {@code ^} is multiplicative, as in the grammar.
+     */
+    private static final int LOGICAL = 1;
+    private static final int COMPARISON = 2;
+    private static final int ADDITIVE = 3;
+    private static final int MULTIPLICATIVE = 4;
+
+    /**
+     * The binary operators and their binding powers. A new operator only needs
+     * to be registered here (with a level above 0) to be parsed.
+     */
+    private static final Map<String, Integer> BINDING_POWERS = new HashMap<>();
+
+    static {
+        BINDING_POWERS.put("&&", LOGICAL);
+        BINDING_POWERS.put("||", LOGICAL);
+        BINDING_POWERS.put(">", COMPARISON);
+        BINDING_POWERS.put("<", COMPARISON);
+        BINDING_POWERS.put("==", COMPARISON);
+        BINDING_POWERS.put("!=", COMPARISON);
+        BINDING_POWERS.put("+", ADDITIVE);
+        BINDING_POWERS.put("-", ADDITIVE);
+        BINDING_POWERS.put("*", MULTIPLICATIVE);
+        BINDING_POWERS.put("/", MULTIPLICATIVE);
+        BINDING_POWERS.put("^", MULTIPLICATIVE);
+    }
+
     private final TokenStream tokens;
+    private final boolean lazy;
+    private final boolean concurrent;
+    private final Map<Ast.Expression, Ast.Expression> shared;
+    private final AstFactory factory;
+    private List<ParseException> errors;
 
     public Parser(List<Token> tokens) {
-        this.tokens = new TokenStream(tokens);
+        this(tokens, false);
+    }
+
+    /**
+     * Creates a parser which, if {@code lazy} is true, doesn't parse function
+     * bodies in {@link #parseFunction()}. Instead it skips to the matching
+     * {@code END} and the body is parsed the first time {@link
+     * Ast.Function#getStatements()} is called, so a consumer only needing
+     * signatures never parses the bodies at all. Parse errors in a body are
+     * only thrown from there, and keywords must not be used as variables
+     * (which the grammar doesn't intend anyway) as the scan for the end of
+     * the body treats every {@code DO}, {@code DEFAULT} and {@code END} as one.
+     */
+    public Parser(List<Token> tokens, boolean lazy) {
+        this(tokens, lazy, false);
+    }
+
+    /**
+     * Creates a parser which, if {@code share} is true, returns the same
+     * instance for every equal literal, and for every equal group or binary
+     * expression made only of those. The {@link Analyzer} gives such an
+     * expression the same type wherever it is, so sharing it is safe; names
+     * and lists are never shared, since their variable, function or type
+     * depends on where they are. Shared expressions compare by identity in
+     * constant time, and large generated sources need much less memory.
+     */
+    public Parser(List<Token> tokens, boolean lazy, boolean share) {
+        this(tokens, lazy, share, AstFactory.DEFAULT);
+    }
+
+    /**
+     * Creates a parser which creates the nodes and lists of the AST with
+     * {@code factory}, such as an {@link AstFactory.Pooled} reused for every
+     * source parsed by a thread.
+     */
+    public Parser(List<Token> tokens, boolean lazy, boolean share, AstFactory factory) {
+        this(new TokenStream(tokens, 0), lazy, false, share ? new HashMap<>() : null, factory);
+    }
+
+    /**
+     * Creates a parser which reads each token from {@code tokens} only once it
+     * is needed, such as from {@link Lexer#iterator()} so the input is lexed
+     * while it is parsed. With {@link #parseDeclarations()}, the tokens of
+     * each global or function are released once it has been returned.
+     */
+    public Parser(Iterator<Token> tokens) {
+        this(new TokenStream(tokens), false, false, null, AstFactory.DEFAULT);
+    }
+
+    /**
+     * Creates a parser reading {@code tokens} from the token at {@code start},
+     * such as to parse only part of a source again.
+     */
+    Parser(List<Token> tokens, int start) {
+        this(new TokenStream(tokens, start), false, false, null, AstFactory.DEFAULT);
+    }
+
+    /**
+     * Creates a parser reading from {@code tokens}. If {@code concurrent} is
+     * true, skipped function bodies may be parsed on different threads, so
+     * they can't share the (unsynchronized) symbol table of a {@link
+     * TokenBuffer} or the table of shared expressions, and each uses tables
+     * of its own and a {@link AstFactory#fork()} of the factory.
+     */
+    private Parser(TokenStream tokens, boolean lazy, boolean concurrent, Map<Ast.Expression, Ast.Expression> shared, AstFactory factory) {
+        this.tokens = tokens;
+        this.lazy = lazy;
+        this.concurrent = concurrent;
+        this.shared = shared;
+        this.factory = factory;
+    }
+
+    /**
+     * Returns the index of the next token to be parsed.
+     */
+    int getIndex() {
+        return tokens.index;
     }
 
     String tokenToString(Token.Type tokenType) {
-        String s = tokens.get(0).getLiteral();
+        String s = tokens.literal(0);
         match(tokenType);
         return s;
     }
@@ -36,10 +154,10 @@ public final class Parser {
     int errorIndex(boolean there) {
         if (!there) {
             //grab before
-            return tokens.get(-1).getLiteral().length() + tokens.get(-1).getIndex();
+            return tokens.end(-1);
         } else if (there) {
             //grab there
-            return tokens.get(0).getIndex();
+            return tokens.start(0);
         }
         return -1;
     }
@@ -49,11 +167,11 @@ public final class Parser {
      * Parses the {@code source} rule.
      */
     public Ast.Source parseSource() throws ParseException {
-        List<Ast.Global> globs = new ArrayList<>();
-        List<Ast.Function> funcs = new ArrayList<>();
+        List<Ast.Global> globs = factory.startList();
+        List<Ast.Function> funcs = factory.startList();
 
-        if(peek("LIST") || peek("VAR") || peek("VAL")) {
-            while (peek("LIST") || peek("VAR") || peek("VAL")) {
+        if(peek(Token.Keyword.LIST) || peek(Token.Keyword.VAR) || peek(Token.Keyword.VAL)) {
+            while (peek(Token.Keyword.LIST) || peek(Token.Keyword.VAR) || peek(Token.Keyword.VAL)) {
                 globs.add(parseGlobal());
 //             if(tokens.has(0) && !peek("DEF") && !peek("LIST") && !peek("VAR") && !peek("VAL")){
 //                 //This token is not a global or a function so error
@@ -61,10 +179,10 @@ public final class Parser {
 //             }
             }
         }
-        if (peek("FUN")){
-            while(peek("FUN")){
+        if (peek(Token.Keyword.FUN)){
+            while(peek(Token.Keyword.FUN)){
                 funcs.add(parseFunction());
-                if(tokens.has(0) && !peek("FUN")){
+                if(tokens.has(0) && !peek(Token.Keyword.FUN)){
                     //This token is not a function and theres nothing else
                     throw new ParseException("PARSE ERRORRRR!", errorIndex(tokens.has(0)));
                 }
@@ -75,8 +193,160 @@ public final class Parser {
             //lef tover tokens that dont belong
             throw new ParseException("PARSE ERRORRRR!", errorIndex(tokens.has(0)));
         }else{
-            return new Ast.Source(globs, funcs);
+            return factory.source(globs, funcs);
+        }
+    }
+
+    /**
+     * Parses the {@code source} rule as with {@link #parseSource()}, but
+     * instead of throwing at the first error it adds the exception to {@code
+     * errors}, skips to the next synchronization point (see {@link
+     * #synchronize()}) and keeps parsing, so every error is reported in one
+     * pass. A statement with an error is left out of its block, and a global
+     * or function with an error outside of a block is left out of the
+     * returned source, which continues at the next global or function.
+     * <p>
+     * The errors are added in the order of their index, which isn't always
+     * the order they are found in (an unclosed block is only reported after
+     * the errors inside it), so the one {@link #parseSource()} would throw
+     * isn't necessarily first. Errors at the same index, which an unclosed
+     * block causes at every enclosing level, are reported once.
+     */
+    public Ast.Source parseSource(List<ParseException> errors) {
+        List<Ast.Global> globs = factory.startList();
+        List<Ast.Function> funcs = factory.startList();
+        this.errors = new ArrayList<>();
+        try {
+            while (tokens.has(0)) {
+                int start = tokens.index;
+                try {
+                    if (peek(Token.Keyword.LIST) || peek(Token.Keyword.VAR) || peek(Token.Keyword.VAL)) {
+                        if (!funcs.isEmpty()) {
+                            //globals must come before the functions
+                            throw new ParseException("PARSE ERRORRRR!", errorIndex(tokens.has(0)));
+                        }
+                        globs.add(parseGlobal());
+                    } else if (peek(Token.Keyword.FUN)) {
+                        funcs.add(parseFunction());
+                    } else {
+                        throw new ParseException("PARSE ERRORRRR!", errorIndex(tokens.has(0)));
+                    }
+                } catch (ParseException e) {
+                    report(e);
+                    if (tokens.index == start) {
+                        tokens.advance();
+                    }
+                    //outside of a block, only the next global or function is a safe place to continue
+                    while (tokens.has(0) && !peek(Token.Keyword.FUN) && !peek(Token.Keyword.LIST) && !peek(Token.Keyword.VAR) && !peek(Token.Keyword.VAL)) {
+                        tokens.advance();
+                    }
+                }
+            }
+        } finally {
+            this.errors.sort(Comparator.comparingInt(ParseException::getIndex));
+            for (int i = 0; i < this.errors.size(); i++) {
+                if (i == 0 || this.errors.get(i - 1).getIndex() != this.errors.get(i).getIndex()) {
+                    errors.add(this.errors.get(i));
+                }
+            }
+            this.errors = null;
+        }
+        return factory.source(globs, funcs);
+    }
+
+    /**
+     * Parses the {@code source} rule as with {@link #parseSource()}, but with
+     * the function bodies parsed concurrently by {@code pool}. Globals and
+     * function signatures are parsed first, skipping each body as in a lazy
+     * parser, then every body is parsed as a separate task.
+     * <p>
+     * If anything fails to parse, the bodies which haven't started are
+     * cancelled and those which have are waited for, so no work is left in
+     * {@code pool}. The source is then parsed again sequentially so the
+     * exception thrown is the same as from {@link #parseSource()}, rather than
+     * whichever error a task happened to find first.
+     */
+    public Ast.Source parseSourceParallel(ForkJoinPool pool) throws ParseException {
+        if (tokens.source != null) {
+            //the tokens haven't been read yet, so there are no bodies to skip
+            return parseSource();
+        }
+        Parser parser = new Parser(new TokenStream(tokens.tokens, tokens.index, tokens.symbols), true, true, shared, factory);
+        Ast.Source source;
+        List<ForkJoinTask<?>> tasks = new ArrayList<>();
+        try {
+            source = parser.parseSource();
+            for (Ast.Function function : source.getFunctions()) {
+                tasks.add(pool.submit(function::getStatements));
+            }
+            for (ForkJoinTask<?> task : tasks) {
+                task.join();
+            }
+        } catch (ParseException e) {
+            //the pool may be shared, so cancel the bodies not yet started and wait for the rest
+            for (ForkJoinTask<?> task : tasks) {
+                task.cancel(false);
+            }
+            for (ForkJoinTask<?> task : tasks) {
+                task.quietlyJoin();
+            }
+            return parseSource();
         }
+        tokens.index = parser.tokens.index;
+        return source;
+    }
+
+    /**
+     * Parses the {@code source} rule one global or function at a time, so each
+     * can be analyzed or generated while the rest of the source is still
+     * being lexed and parsed. The iterator returns the same globals and then
+     * functions as {@link #parseSource()} would, and a {@link ParseException}
+     * is thrown from {@link Iterator#hasNext()} at the same index, though
+     * only once everything before the error has been returned.
+     */
+    public Iterator<Ast> parseDeclarations() {
+        return parseDeclarations(false);
+    }
+
+    /**
+     * Parses the {@code source} rule one global or function at a time as in
+     * {@link #parseDeclarations()}, where {@code afterFunction} is true if a
+     * function came before the next token (so no more globals are allowed).
+     */
+    Iterator<Ast> parseDeclarations(boolean afterFunction) {
+        return new Iterator<Ast>() {
+
+            private Ast next = null;
+            private boolean functions = afterFunction;
+
+            @Override
+            public boolean hasNext() {
+                if (next == null && tokens.has(0)) {
+                    if (!functions && (peek(Token.Keyword.LIST) || peek(Token.Keyword.VAR) || peek(Token.Keyword.VAL))) {
+                        next = parseGlobal();
+                    } else if (peek(Token.Keyword.FUN)) {
+                        functions = true;
+                        next = parseFunction();
+                    } else {
+                        //globals must come before the functions, and nothing else belongs here
+                        throw new ParseException("PARSE ERRORRRR!", errorIndex(tokens.has(0)));
+                    }
+                    tokens.release();
+                }
+                return next != null;
+            }
+
+            @Override
+            public Ast next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                Ast ast = next;
+                next = null;
+                return ast;
+            }
+
+        };
     }
 
     /**
@@ -85,11 +355,11 @@ public final class Parser {
      */
     public Ast.Global parseGlobal() throws ParseException {
         Ast.Global glob;
-        if(peek("LIST")){
+        if(peek(Token.Keyword.LIST)){
             glob = parseList();
-        }else if (peek("VAR")){
+        }else if (peek(Token.Keyword.VAR)){
             glob = parseMutable();
-        } else if (peek("VAL")){
+        } else if (peek(Token.Keyword.VAL)){
             glob = parseImmutable();
         }else{
             // missing start of global
@@ -110,18 +380,18 @@ public final class Parser {
      * next token declares a list, aka {@code LIST}.
      */
     public Ast.Global parseList() throws ParseException {
-        match("LIST");
+        match(Token.Keyword.LIST);
         String first;
         String type = "";
-        List<Ast.Expression> list = new ArrayList<>();
+        List<Ast.Expression> list = factory.startList();
 
         if (peek(Token.Type.IDENTIFIER)) {
-            first = tokens.get(0).getLiteral();
+            first = tokens.literal(0);
             match(Token.Type.IDENTIFIER);
             if (peek(":")) {
                 match(":");
                 if (peek(Token.Type.IDENTIFIER)) {
-                    type = tokens.get(0).getLiteral();
+                    type = tokens.literal(0);
                     match(Token.Type.IDENTIFIER);
                 } else {
                     throw new ParseException("PARSE ERRORRRR!", errorIndex(tokens.has(0)));
@@ -143,12 +413,12 @@ public final class Parser {
                     }
                     if (peek("]")) {
                         match("]");
-                        Ast.Expression.PlcList PLClist = new Ast.Expression.PlcList(list);
+                        Ast.Expression.PlcList PLClist = factory.plcList(list);
                         if(!type.equals("")){
-                            return new Ast.Global(first, type,true, Optional.of(PLClist));
+                            return factory.global(first, type, true, Optional.of(PLClist));
 
                         }else{
-                            return new Ast.Global(first, true, Optional.of(PLClist));
+                            return factory.global(first, "Any", true, Optional.of(PLClist));
                         }
                     } else {
                         // missing ]
@@ -174,17 +444,17 @@ public final class Parser {
      * next token declares a mutable global variable, aka {@code VAR}.
      */
     public Ast.Global parseMutable() throws ParseException {
-        match("VAR");
+        match(Token.Keyword.VAR);
         String first;
         String type = "";
 
         if (peek(Token.Type.IDENTIFIER)) {
-            first = tokens.get(0).getLiteral();
+            first = tokens.literal(0);
             match(Token.Type.IDENTIFIER);
             if (peek(":")) {
                 match(":");
                 if (peek(Token.Type.IDENTIFIER)) {
-                    type = tokens.get(0).getLiteral();
+                    type = tokens.literal(0);
                     match(Token.Type.IDENTIFIER);
                 } else {
                     throw new ParseException("PARSE ERRORRRR!", errorIndex(tokens.has(0)));
@@ -194,17 +464,17 @@ public final class Parser {
                 match("=");
                 Ast.Expression exp = parseExpression();
                 if(!type.equals("")){
-                    return new Ast.Global(first, type, true, Optional.of(exp));
+                    return factory.global(first, type, true, Optional.of(exp));
                 }else{
-                    return new Ast.Global(first, true, Optional.of(exp));
+                    return factory.global(first, "Any", true, Optional.of(exp));
                 }
             } else {
                 //make sure this doesnt cause problems since there
                 // may be something after that isnt a = so prev if statement fails
                 if(!type.equals("")){
-                    return new Ast.Global(first, type, true, Optional.empty());
+                    return factory.global(first, type, true, Optional.empty());
                 }else{
-                    return new Ast.Global(first, true, Optional.empty());
+                    return factory.global(first, "Any", true, Optional.empty());
                 }
             }
         } else {
@@ -218,17 +488,17 @@ public final class Parser {
      * next token declares an immutable global variable, aka {@code VAL}.
      */
     public Ast.Global parseImmutable() throws ParseException {
-        match("VAL");
+        match(Token.Keyword.VAL);
         String first;
         String type = "";
 
         if (peek(Token.Type.IDENTIFIER)) {
-            first = tokens.get(0).getLiteral();
+            first = tokens.literal(0);
             match(Token.Type.IDENTIFIER);
             if (peek(":")) {
                 match(":");
                 if (peek(Token.Type.IDENTIFIER)) {
-                    type = tokens.get(0).getLiteral();
+                    type = tokens.literal(0);
                     match(Token.Type.IDENTIFIER);
                 } else {
                     throw new ParseException("PARSE ERRORRRR!", errorIndex(tokens.has(0)));
@@ -238,9 +508,9 @@ public final class Parser {
                 match("=");
                 Ast.Expression exp = parseExpression();
                 if(!type.equals("")){
-                    return new Ast.Global(first, type, false, Optional.of(exp));
+                    return factory.global(first, type, false, Optional.of(exp));
                 }else{
-                    return new Ast.Global(first, false, Optional.of(exp));
+                    return factory.global(first, "Any", false, Optional.of(exp));
                 }
             } else {
                 // Missing equals sign
@@ -257,21 +527,21 @@ public final class Parser {
      * next tokens start a method, aka {@code DEF}.
      */
     public Ast.Function parseFunction() throws ParseException {
-        match("FUN");
+        match(Token.Keyword.FUN);
         String first;
         String retType = "";
-        List<String> params = new ArrayList<>();
-        List<String> paramsType = new ArrayList<>();
-        List<Ast.Statement> statements = new ArrayList<>();
+        List<String> params = factory.startList();
+        List<String> paramsType = factory.startList();
+        List<Ast.Statement> statements;
 
         if (peek(Token.Type.IDENTIFIER)) {
-            first = tokens.get(0).getLiteral();
+            first = tokens.literal(0);
             match(Token.Type.IDENTIFIER);
             if (peek("(")) {
                 match("(");
 
                 while (peek(Token.Type.IDENTIFIER)) {
-                    params.add(tokens.get(0).getLiteral());
+                    params.add(tokens.literal(0));
                     match(Token.Type.IDENTIFIER);
                     if (peek(":")) {
                         match(":");
@@ -279,7 +549,7 @@ public final class Parser {
                         throw new ParseException("PARSE ERRORRRR!", errorIndex(tokens.has(0)));
                     }
                     if (peek(Token.Type.IDENTIFIER)) {
-                        paramsType.add(tokens.get(0).getLiteral());
+                        paramsType.add(tokens.literal(0));
                         match(Token.Type.IDENTIFIER);
                     } else {
                         throw new ParseException("PARSE ERRORRRR!", errorIndex(tokens.has(0)));
@@ -300,23 +570,28 @@ public final class Parser {
                     if (peek(":")) {
                         match(":");
                         if (peek(Token.Type.IDENTIFIER)) {
-                            retType = tokens.get(0).getLiteral();
+                            retType = tokens.literal(0);
                             match(Token.Type.IDENTIFIER);
                         } else {
                             throw new ParseException("PARSE ERRORRRR!", errorIndex(tokens.has(0)));
                         }
                     }
-                    if (peek("DO")) {
-                        match("DO");
+                    if (peek(Token.Keyword.DO)) {
+                        match(Token.Keyword.DO);
+                        Supplier<List<Ast.Statement>> body = lazy && errors == null ? skipBody() : null;
+                        if (body != null) {
+                            match(Token.Keyword.END);
+                            return factory.function(first, params, paramsType, retType.equals("") ? Optional.empty() : Optional.of(retType), body);
+                        }
                         //TODO check block
                         statements = parseBlock();
-                        if (peek("END")) {
-                            match("END");
+                        if (peek(Token.Keyword.END)) {
+                            match(Token.Keyword.END);
                             if (!retType.equals("")) {
-                                return new Ast.Function(first, params, paramsType, Optional.of(retType), statements);
+                                return factory.function(first, params, paramsType, Optional.of(retType), statements);
                             }
                             else {
-                                return new Ast.Function(first, params, paramsType, Optional.empty(), statements);
+                                return factory.function(first, params, paramsType, Optional.empty(), statements);
                             }
                         } else {
                             // missing END
@@ -342,55 +617,145 @@ public final class Parser {
 
     }
 
+    /**
+     * Skips the tokens of a function body up to the {@code END} closing it by
+     * counting the blocks opened and closed. Every {@code END} closes either a
+     * {@code DO} or, in a switch, the {@code DEFAULT} case. Returns a supplier
+     * which parses the skipped tokens as {@link #parseBlock()} would have. If
+     * there is no matching {@code END} the body is invalid, so this returns
+     * {@code null} without skipping anything and the body is parsed right
+     * away to report the error.
+     */
+    private Supplier<List<Ast.Statement>> skipBody() {
+        int start = tokens.index;
+        int depth = 1;
+        while (tokens.has(0)) {
+            Token.Keyword keyword = keyword();
+            if (keyword == Token.Keyword.DO || keyword == Token.Keyword.DEFAULT) {
+                depth++;
+            } else if (keyword == Token.Keyword.END && --depth == 0) {
+                break;
+            }
+            tokens.advance();
+        }
+        int end = tokens.index;
+        if (!tokens.has(0)) {
+            tokens.index = start;
+            return null;
+        }
+        List<Token> list = tokens.tokens;
+        SymbolTable symbols = tokens.symbols;
+        Map<Ast.Expression, Ast.Expression> shared = this.shared;
+        AstFactory factory = this.factory;
+        return () -> {
+            TokenStream stream = new TokenStream(list, start, concurrent && symbols != null ? new SymbolTable() : symbols);
+            Parser parser = new Parser(stream, false, false, concurrent && shared != null ? new HashMap<>() : shared, concurrent ? factory.fork() : factory);
+            List<Ast.Statement> statements = parser.parseBlock();
+            if (parser.tokens.index != end) {
+                //the block ended at an ELSE, CASE or DEFAULT, or at an END used as a variable
+                throw new ParseException("PARSE ERRORRRR!", parser.errorIndex(parser.tokens.has(0)));
+            }
+            return parser.factory.finishList(statements);
+        };
+    }
+
     /**
      * Parses the {@code block} rule. This method should only be called if the
      * preceding token indicates the opening a block.
      */
     public List<Ast.Statement> parseBlock() throws ParseException {
-        ArrayList<Ast.Statement> statements = new ArrayList<>();
+        List<Ast.Statement> statements = factory.startList();
         //TODO make sure this covers all cases for statement building
-        while (!peek("ELSE") && !peek("END") && !peek("DEFAULT") && !peek("CASE")) {
-            statements.add(parseStatement());
+        while (!peek(Token.Keyword.ELSE) && !peek(Token.Keyword.END) && !peek(Token.Keyword.DEFAULT) && !peek(Token.Keyword.CASE)) {
+            if (errors == null) {
+                statements.add(parseStatement());
+                continue;
+            }
+            int start = tokens.index;
+            boolean function = peek(Token.Keyword.FUN);
+            try {
+                statements.add(parseStatement());
+            } catch (ParseException e) {
+                report(e);
+                if (function) {
+                    //FUN parses as a variable, but if that fails it more likely starts the next function
+                    tokens.index = start;
+                    break;
+                }
+                synchronize();
+                if (!tokens.has(0) || peek(Token.Keyword.FUN)) {
+                    //the block is never closed, which whoever opened it reports
+                    break;
+                }
+            }
         }
         return statements;
     }
 
+    /**
+     * Adds {@code exception} to the errors of {@link #parseSource(List)}
+     * unless the previous error has the same index.
+     */
+    private void report(ParseException exception) {
+        if (errors.isEmpty() || errors.get(errors.size() - 1).getIndex() != exception.getIndex()) {
+            errors.add(exception);
+        }
+    }
+
+    /**
+     * Skips tokens after an error up to and including the next {@code ;},
+     * or up to the next {@code END}, {@code CASE}, {@code DEFAULT}, {@code
+     * ELSE} or {@code FUN}, which are left for the enclosing block or the
+     * source to continue at.
+     */
+    private void synchronize() {
+        while (tokens.has(0) && keyword() != Token.Keyword.END && keyword() != Token.Keyword.CASE
+                && keyword() != Token.Keyword.DEFAULT && keyword() != Token.Keyword.ELSE && keyword() != Token.Keyword.FUN) {
+            if (match(";")) {
+                return;
+            }
+            tokens.advance();
+        }
+    }
+
     /**
      * Parses the {@code statement} rule and delegates to the necessary method.
      * If the next tokens do not start a declaration, if, while, or return
      * statement, then it is an expression/assignment statement.
      */
     public Ast.Statement parseStatement() throws ParseException {
-        if (peek("LET")) {
-            return parseDeclarationStatement();
-        } else if (peek("SWITCH")) {
-            return parseSwitchStatement();
-        } else if (peek("IF")) {
-            return parseIfStatement();
-        } else if (peek("WHILE")) {
-            return parseWhileStatement();
-        } else if (peek("RETURN")) {
-            return parseReturnStatement();
+        if (keyword() != null) {
+            switch (keyword()) {
+                case LET:
+                    return parseDeclarationStatement();
+                case SWITCH:
+                    return parseSwitchStatement();
+                case IF:
+                    return parseIfStatement();
+                case WHILE:
+                    return parseWhileStatement();
+                case RETURN:
+                    return parseReturnStatement();
+            }
+        }
+        Ast.Expression first = parseExpression();
+        if (peek("=")) {
+            match("=");
+            Ast.Expression second = parseExpression();
+            if (peek(";")) {
+                match(";");
+                return factory.assignmentStatement(first, second);
+            } else {
+                //no closing semicolon
+                throw new ParseException("PARSE ERRORRRR!", errorIndex(tokens.has(0)));
+            }
         } else {
-            Ast.Expression first = parseExpression();
-            if (peek("=")) {
-                match("=");
-                Ast.Expression second = parseExpression();
-                if (peek(";")) {
-                    match(";");
-                    return new Ast.Statement.Assignment(first, second);
-                } else {
-                    //no closing semicolon
-                    throw new ParseException("PARSE ERRORRRR!", errorIndex(tokens.has(0)));
-                }
+            if (peek(";")) {
+                match(";");
+                return factory.expressionStatement(first);
             } else {
-                if (peek(";")) {
-                    match(";");
-                    return new Ast.Statement.Expression(first);
-                } else {
-                    //no closing semicolon
-                    throw new ParseException("PARSE ERRORRRR!", errorIndex(tokens.has(0)));
-                }
+                //no closing semicolon
+                throw new ParseException("PARSE ERRORRRR!", errorIndex(tokens.has(0)));
             }
         }
     }
@@ -401,18 +766,18 @@ public final class Parser {
      * statement, aka {@code LET}.
      */
     public Ast.Statement.Declaration parseDeclarationStatement() throws ParseException {
-        match("LET");
+        match(Token.Keyword.LET);
         String first;
         String type = "";
 
         if (peek(Token.Type.IDENTIFIER)) {
-            first = tokens.get(0).getLiteral();
+            first = tokens.literal(0);
             match(Token.Type.IDENTIFIER);
 
             if (peek(":")) {
                 match(":");
                 if (peek(Token.Type.IDENTIFIER)) {
-                    type = tokens.get(0).getLiteral();
+                    type = tokens.literal(0);
                     match(Token.Type.IDENTIFIER);
                 } else {
                     throw new ParseException("PARSE ERRORRRR!", errorIndex(tokens.has(0)));
@@ -426,9 +791,9 @@ public final class Parser {
                 if (peek(";")) {
                     match(";");
                     if (!type.equals("")) {
-                        return new Ast.Statement.Declaration(first, Optional.of(type), Optional.of(value));
+                        return factory.declarationStatement(first, Optional.of(type), Optional.of(value));
                     }else {
-                        return new Ast.Statement.Declaration(first, Optional.empty(), Optional.of(value));
+                        return factory.declarationStatement(first, Optional.empty(), Optional.of(value));
                     }
                 } else {
                     //missing ;
@@ -438,9 +803,9 @@ public final class Parser {
                 if (peek(";")) {
                     match(";");
                     if (!type.equals("")) {
-                        return new Ast.Statement.Declaration(first, Optional.of(type), Optional.empty());
+                        return factory.declarationStatement(first, Optional.of(type), Optional.empty());
                     }else {
-                        return new Ast.Statement.Declaration(first, Optional.empty(), Optional.empty());
+                        return factory.declarationStatement(first, Optional.empty(), Optional.empty());
                     }
                 } else {
                     //missing ; and no equals
@@ -459,23 +824,25 @@ public final class Parser {
      * {@code IF}.
      */
     public Ast.Statement.If parseIfStatement() throws ParseException {
-        match("IF");
+        match(Token.Keyword.IF);
         Ast.Expression first = parseExpression();
-        List<Ast.Statement> then = new ArrayList<>();
-        List<Ast.Statement> elses = new ArrayList<>();
+        List<Ast.Statement> then;
+        List<Ast.Statement> elses;
 
-        if (peek("DO")) {
-            match("DO");
+        if (peek(Token.Keyword.DO)) {
+            match(Token.Keyword.DO);
             //TODO check this block
             then = parseBlock();
-            if (peek("ELSE")) {
-                match("ELSE");
+            if (peek(Token.Keyword.ELSE)) {
+                match(Token.Keyword.ELSE);
                 //TODO check block
                 elses = parseBlock();
+            } else {
+                elses = factory.startList();
             }
-            if (peek("END")) {
-                match("END");
-                return new Ast.Statement.If(first, then, elses);
+            if (peek(Token.Keyword.END)) {
+                match(Token.Keyword.END);
+                return factory.ifStatement(first, then, elses);
             }
             //no ELSE or END
             throw new ParseException("PARSE ERRORRRR!", errorIndex(tokens.has(0)));
@@ -491,15 +858,15 @@ public final class Parser {
      * {@code SWITCH}.
      */
     public Ast.Statement.Switch parseSwitchStatement() throws ParseException {
-        match("SWITCH");
+        match(Token.Keyword.SWITCH);
         Ast.Expression first = parseExpression();
-        List<Ast.Statement.Case> cases = new ArrayList<>();
+        List<Ast.Statement.Case> cases = factory.startList();
 
-        if (peek("CASE") || peek("DEFAULT")) {
-            while (peek("CASE") || peek("DEFAULT")) {
+        if (peek(Token.Keyword.CASE) || peek(Token.Keyword.DEFAULT)) {
+            while (peek(Token.Keyword.CASE) || peek(Token.Keyword.DEFAULT)) {
                 cases.add(parseCaseStatement());
             }
-            return new Ast.Statement.Switch(first, cases);
+            return factory.switchStatement(first, cases);
         } else {
             //SWITCH with no case or default
             throw new ParseException("PARSE ERRORRRR!", errorIndex(tokens.has(0)));
@@ -513,27 +880,27 @@ public final class Parser {
      * default block of a switch statement, aka {@code CASE} or {@code DEFAULT}.
      */
     public Ast.Statement.Case parseCaseStatement() throws ParseException {
-        List<Ast.Statement> statements = new ArrayList<>();
+        List<Ast.Statement> statements;
 
-        if (peek("CASE")) {
-            match("CASE");
+        if (peek(Token.Keyword.CASE)) {
+            match(Token.Keyword.CASE);
             Ast.Expression first = parseExpression();
             if (peek(":")) {
                 match(":");
                 //TODO check block
                 statements = parseBlock();
-                return new Ast.Statement.Case(Optional.of(first), statements);
+                return factory.caseStatement(Optional.of(first), statements);
             } else {
                 //missing :
                 throw new ParseException("PARSE ERRORRRR!", errorIndex(tokens.has(0)));
             }
-        } else if (peek("DEFAULT")) {
-            match("DEFAULT");
+        } else if (peek(Token.Keyword.DEFAULT)) {
+            match(Token.Keyword.DEFAULT);
             //TODO check block
             statements = parseBlock();
-            if (peek("END")) {
-                match("END");
-                return new Ast.Statement.Case(Optional.empty(), statements);
+            if (peek(Token.Keyword.END)) {
+                match(Token.Keyword.END);
+                return factory.caseStatement(Optional.empty(), statements);
             } else {
                 //no END
                 throw new ParseException("PARSE ERRORRRR!", errorIndex(tokens.has(0)));
@@ -551,17 +918,17 @@ public final class Parser {
      * {@code WHILE}.
      */
     public Ast.Statement.While parseWhileStatement() throws ParseException {
-        match("WHILE");
+        match(Token.Keyword.WHILE);
         Ast.Expression first = parseExpression();
-        List<Ast.Statement> statements = new ArrayList<>();
+        List<Ast.Statement> statements;
 
-        if (peek("DO")) {
-            match("DO");
+        if (peek(Token.Keyword.DO)) {
+            match(Token.Keyword.DO);
             //TODO check block
             statements = parseBlock();
-            if (peek("END")) {
-                match("END");
-                return new Ast.Statement.While(first, statements);
+            if (peek(Token.Keyword.END)) {
+                match(Token.Keyword.END);
+                return factory.whileStatement(first, statements);
             } else {
                 //missing END
                 throw new ParseException("PARSE ERRORRRR!", errorIndex(tokens.has(0)));
@@ -578,13 +945,13 @@ public final class Parser {
      * {@code RETURN}.
      */
     public Ast.Statement.Return parseReturnStatement() throws ParseException {
-        match("RETURN");
+        match(Token.Keyword.RETURN);
 
         Ast.Expression first = parseExpression();
 
         if (peek(";")) {
             match(";");
-            return new Ast.Statement.Return(first);
+            return factory.returnStatement(first);
         } else {
             //missing semicolon
             throw new ParseException("PARSE ERRORRRR!", errorIndex(tokens.has(0)));
@@ -595,83 +962,89 @@ public final class Parser {
      * Parses the {@code expression} rule.
      */
     public Ast.Expression parseExpression() throws ParseException {
-        return parseLogicalExpression();
+        return parseBinaryExpression(0);
     }
 
     /**
      * Parses the {@code logical-expression} rule.
      */
     public Ast.Expression parseLogicalExpression() throws ParseException {
-        Ast.Expression first = parseComparisonExpression();
-
-        while (peek("&&") || peek("||")) {
-            String op = tokenToString(Token.Type.OPERATOR);
-            Ast.Expression second = parseComparisonExpression();
-
-            if (peek("&&") || peek("||")) {
-                first = new Ast.Expression.Binary(op, first, second);
-            } else {
-                return new Ast.Expression.Binary(op, first, second);
-            }
-        }
-        return first;
+        return parseBinaryExpression(0);
     }
 
     /**
      * Parses the {@code equality-expression} rule.
      */
     public Ast.Expression parseComparisonExpression() throws ParseException {
-        Ast.Expression first = parseAdditiveExpression();
-
-        while (peek(">") || peek("<") || peek("==") || peek("!=")) {
-            String op = tokenToString(Token.Type.OPERATOR);
-            Ast.Expression second = parseAdditiveExpression();
-
-            if (peek(">") || peek("<") || peek("==") || peek("!=")) {
-                first = new Ast.Expression.Binary(op, first, second);
-            } else {
-                return new Ast.Expression.Binary(op, first, second);
-            }
-        }
-        return first;
+        return parseBinaryExpression(LOGICAL);
     }
 
     /**
      * Parses the {@code additive-expression} rule.
      */
     public Ast.Expression parseAdditiveExpression() throws ParseException {
-        Ast.Expression first = parseMultiplicativeExpression();
-
-        while (peek("+") || peek("-")) {
-            String op = tokenToString(Token.Type.OPERATOR);
-            Ast.Expression second = parseMultiplicativeExpression();
-
-            if (peek("+") || peek("-")) {
-                first = new Ast.Expression.Binary(op, first, second);
-            } else {
-                return new Ast.Expression.Binary(op, first, second);
-            }
-        }
-        return first;
+        return parseBinaryExpression(COMPARISON);
     }
 
     /**
      * Parses the {@code multiplicative-expression} rule.
      */
     public Ast.Expression parseMultiplicativeExpression() throws ParseException {
-        Ast.Expression first = parsePrimaryExpression();
+        return parseBinaryExpression(ADDITIVE);
+    }
 
-        while (peek("*") || peek("/") || peek("^")) {
+    /**
+     * Parses a sequence of primary expressions joined by binary operators
+     * which bind tighter than {@code minimum}. Rather than a method per level
+     * of the grammar, each operator's level is its binding power in {@link
+     * #BINDING_POWERS}, so a primary expression is reached in one call and
+     * each operator costs one lookup. Since the right operand only takes
+     * operators binding strictly tighter, operators of the same level group
+     * to the left as in the grammar.
+     */
+    private Ast.Expression parseBinaryExpression(int minimum) throws ParseException {
+        Ast.Expression left = parsePrimaryExpression();
+        int power;
+        while ((power = bindingPower()) > minimum) {
             String op = tokenToString(Token.Type.OPERATOR);
-            Ast.Expression second = parsePrimaryExpression();
+            Ast.Expression right = parseBinaryExpression(power);
+            left = share(factory.binary(op, left, right));
+        }
+        return left;
+    }
 
-            if (peek("[*]") || peek("/") || peek("[^]")) {
-                first = new Ast.Expression.Binary(op, first, second);
-            } else {
-                return new Ast.Expression.Binary(op, first, second);
-            }
+    /**
+     * Returns the shared instance equal to {@code expression} if sharing is
+     * enabled and its children are shared (see {@link #Parser(List, boolean,
+     * boolean)}), otherwise {@code expression} itself.
+     */
+    @SuppressWarnings("unchecked")
+    private <T extends Ast.Expression> T share(T expression) {
+        if (shared == null) {
+            return expression;
+        } else if (expression instanceof Ast.Expression.Group && !isShared(((Ast.Expression.Group) expression).getExpression())) {
+            return expression;
+        } else if (expression instanceof Ast.Expression.Binary && !(isShared(((Ast.Expression.Binary) expression).getLeft())
+                && isShared(((Ast.Expression.Binary) expression).getRight()))) {
+            return expression;
         }
-        return first;
+        T existing = (T) shared.putIfAbsent(expression, expression);
+        return existing != null ? existing : expression;
+    }
+
+    private boolean isShared(Ast.Expression expression) {
+        return shared.get(expression) == expression;
+    }
+
+    /**
+     * Returns the binding power of the next token, or 0 if it is not a binary
+     * operator.
+     */
+    private int bindingPower() {
+        if (!tokens.has(0) || tokens.type(0) != Token.Type.OPERATOR) {
+            return 0;
+        }
+        return BINDING_POWERS.getOrDefault(tokens.literal(0), 0);
     }
 
     /**
@@ -681,48 +1054,37 @@ public final class Parser {
      * not strictly necessary.
      */
     public Ast.Expression parsePrimaryExpression() throws ParseException {
-        if (peek("NIL")) {
-            match("NIL");
-            return new Ast.Expression.Literal(null);
-        } else if (peek("TRUE")) {
-            match("TRUE");
-            return new Ast.Expression.Literal(Boolean.TRUE);
-        } else if (peek("FALSE")) {
-            match("FALSE");
-            return new Ast.Expression.Literal(Boolean.FALSE);
-        } else if (peek(Token.Type.INTEGER)) {
-            return new Ast.Expression.Literal(new BigInteger(tokenToString(Token.Type.INTEGER)));
+        if (keyword() != null) {
+            switch (keyword()) {
+                case NIL:
+                    tokens.advance();
+                    return share(factory.literal(null));
+                case TRUE:
+                    tokens.advance();
+                    return share(factory.literal(Boolean.TRUE));
+                case FALSE:
+                    tokens.advance();
+                    return share(factory.literal(Boolean.FALSE));
+            }
+        }
+        if (peek(Token.Type.INTEGER)) {
+            return share(factory.literal(new BigInteger(tokenToString(Token.Type.INTEGER))));
         } else if (peek(Token.Type.DECIMAL)) {
-            return new Ast.Expression.Literal(new BigDecimal(tokenToString(Token.Type.DECIMAL)));
+            return share(factory.literal(new BigDecimal(tokenToString(Token.Type.DECIMAL))));
         } else if (peek(Token.Type.CHARACTER)) {
-            String c = tokenToString(Token.Type.CHARACTER);
-            c = c.substring(1, c.length() - 1);
-            c = c.replace("\\b", "\b");
-            c = c.replace("\\n", "\n");
-            c = c.replace("\\r", "\r");
-            c = c.replace("\\t", "\t");
-            c = c.replace("\\\"", "\"");
-            c = c.replace("\\\\", "\\");
-            c = c.replace("\\\'", "\'");
-            Character first = c.charAt(0);
-            return new Ast.Expression.Literal(first);
+            Character first = tokens.value(0).charAt(0);
+            tokens.advance();
+            return share(factory.literal(first));
         } else if (peek(Token.Type.STRING)) {
-            String s = tokenToString(Token.Type.STRING);
-            s = s.substring(1, s.length() - 1);
-            s = s.replace("\\b", "\b");
-            s = s.replace("\\n", "\n");
-            s = s.replace("\\r", "\r");
-            s = s.replace("\\t", "\t");
-            s = s.replace("\\\"", "\"");
-            s = s.replace("\\\\", "\\");
-            s = s.replace("\\\'", "\'");
-            return new Ast.Expression.Literal(s);
+            String s = tokens.value(0);
+            tokens.advance();
+            return share(factory.literal(s));
         } else if (peek("(")) {
             match("(");
             Ast.Expression first = parseExpression();
             if (peek(")")) {
                 match(")");
-                return new Ast.Expression.Group(first);
+                return share(factory.group(first));
             } else {
                 //error that there is something else other than closing quote on group
                 throw new ParseException("PARSE ERRORRRR!", errorIndex(tokens.has(0)));
@@ -731,7 +1093,7 @@ public final class Parser {
             String first = tokenToString(Token.Type.IDENTIFIER);
             if (peek("(")) {
                 match("(");
-                List<Ast.Expression> arguments = new ArrayList<>();
+                List<Ast.Expression> arguments = factory.startList();
                 while (!peek(")")) {
                     arguments.add(parseExpression());
                     if (peek(",")) {
@@ -745,7 +1107,7 @@ public final class Parser {
                 }
                 if (peek(")")) {
                     match(")");
-                    return new Ast.Expression.Function(first, arguments);
+                    return factory.functionCall(first, arguments);
                 }
                 //error that there is no closing bracket on function
                 throw new ParseException("PARSE ERRORRRR!", errorIndex(tokens.has(0)));
@@ -754,7 +1116,7 @@ public final class Parser {
                 Ast.Expression second = parseExpression();
                 if (peek("]")) {
                     match("]");
-                    return new Ast.Expression.Access(Optional.of(second), first);
+                    return factory.access(Optional.of(second), first);
                 } else {
                     //error that it doesn't end in a ']'
                     if (peek(".")) {
@@ -765,7 +1127,7 @@ public final class Parser {
                 }
             } else {
                 //just return an identifier
-                return new Ast.Expression.Access(Optional.empty(), first);
+                return factory.access(Optional.empty(), first);
             }
         } else {
             //error that there is nothing to peek/match as a primary expression
@@ -773,40 +1135,83 @@ public final class Parser {
         }
     }
 
+    /**
+     * Returns the keyword of the current token, or {@code null} if there is no
+     * token or it is not a keyword.
+     */
+    private Token.Keyword keyword() {
+        return tokens.has(0) ? tokens.keyword(0) : null;
+    }
+
     /**
      * As in the lexer, returns {@code true} if the current sequence of tokens
      * matches the given patterns. Unlike the lexer, the pattern is not a regex;
      * instead it is either a {@link Token.Type}, which matches if the token's
-     * type is the same, or a {@link String}, which matches if the token's
-     * literal is the same.
+     * type is the same, a {@link String}, which matches if the token's literal
+     * is the same, or a {@link Token.Keyword}, which matches if the token is
+     * that keyword.
      * <p>
      * In other words, {@code Token(IDENTIFIER, "literal")} is matched by both
-     * {@code peek(Token.Type.IDENTIFIER)} and {@code peek("literal")}.
+     * {@code peek(Token.Type.IDENTIFIER)} and {@code peek("literal")}, and
+     * {@code Token(IDENTIFIER, "END")} is also matched by {@code
+     * peek(Token.Keyword.END)}.
      */
     private boolean peek(Object... patterns) {
         for (int i = 0; i < patterns.length; i++) {
-            if (!tokens.has(i)) {
+            if (!peekAt(i, patterns[i])) {
                 return false;
-            } else if (patterns[i] instanceof Token.Type) {
-                if (patterns[i] != tokens.get(i).getType()) {
-                    return false;
-                }
-            } else if (patterns[i] instanceof String) {
-                if (!patterns[i].equals(tokens.get(i).getLiteral())) {
-                    return false;
-                }
-            } else {
-                throw new AssertionError("Invalid pattern object" + patterns.getClass());
             }
         }
         return true;
     }
 
+    /*
+     * The single and two token overloads below are what nearly every call
+     * resolves to. Unlike the varargs version, they don't allocate an array
+     * per call, and the single token ones compare the token's type or keyword
+     * ordinal (or literal) without checking what kind of pattern was given.
+     */
+
+    private boolean peek(Token.Type type) {
+        return tokens.has(0) && tokens.type(0) == type;
+    }
+
+    private boolean peek(Token.Keyword keyword) {
+        return tokens.has(0) && tokens.keyword(0) == keyword;
+    }
+
+    private boolean peek(String literal) {
+        return tokens.has(0) && tokens.matches(0, literal);
+    }
+
+    private boolean peek(Object first, Object second) {
+        return peekAt(0, first) && peekAt(1, second);
+    }
+
+    /**
+     * Returns true if the token at the given offset matches the pattern, as
+     * described in {@link #peek(Object...)}.
+     */
+    private boolean peekAt(int offset, Object pattern) {
+        if (!tokens.has(offset)) {
+            return false;
+        } else if (pattern instanceof Token.Type) {
+            return pattern == tokens.type(offset);
+        } else if (pattern instanceof String) {
+            return tokens.matches(offset, (String) pattern);
+        } else if (pattern instanceof Token.Keyword) {
+            return pattern == tokens.keyword(offset);
+        } else {
+            throw new AssertionError("Invalid pattern object" + pattern.getClass());
+        }
+    }
+
     /**
      * As in the lexer, returns {@code true} if {@link #peek(Object...)} is true
-     * and advances the token stream.
+     * and advances the token stream. The match overloads are package-private
+     * so tests can compare their allocation with this one.
      */
-    private boolean match(Object... patterns) {
+    boolean match(Object... patterns) {
         boolean peek = peek(patterns);
         if (peek) {
             for (int i = 0; i < patterns.length; i++) {
@@ -816,27 +1221,167 @@ public final class Parser {
         return peek;
     }
 
+    boolean match(Token.Type type) {
+        boolean peek = peek(type);
+        if (peek) {
+            tokens.advance();
+        }
+        return peek;
+    }
+
+    boolean match(Token.Keyword keyword) {
+        boolean peek = peek(keyword);
+        if (peek) {
+            tokens.advance();
+        }
+        return peek;
+    }
+
+    boolean match(String literal) {
+        boolean peek = peek(literal);
+        if (peek) {
+            tokens.advance();
+        }
+        return peek;
+    }
+
+    boolean match(Object first, Object second) {
+        boolean peek = peek(first, second);
+        if (peek) {
+            tokens.advance();
+            tokens.advance();
+        }
+        return peek;
+    }
+
+    /**
+     * The tokens being parsed, which are read from the arrays of a {@link
+     * TokenBuffer} directly when given one rather than creating each token.
+     */
     private static final class TokenStream {
 
         private final List<Token> tokens;
+        private final TokenBuffer buffer;
+        private final SymbolTable symbols;
+        private final Iterator<Token> source;
         private int index = 0;
+        private int base = 0;
+
+        private TokenStream(List<Token> tokens, int start) {
+            this(tokens, start, tokens instanceof TokenBuffer ? ((TokenBuffer) tokens).getSymbols() : null);
+        }
 
-        private TokenStream(List<Token> tokens) {
+        /**
+         * Creates a stream starting at the token at {@code start}, interning
+         * the literals of a {@link TokenBuffer} in {@code symbols}.
+         */
+        private TokenStream(List<Token> tokens, int start, SymbolTable symbols) {
             this.tokens = tokens;
+            this.buffer = tokens instanceof TokenBuffer ? (TokenBuffer) tokens : null;
+            this.symbols = symbols;
+            this.source = null;
+            this.index = start;
+        }
+
+        /**
+         * Creates a stream reading from {@code source} as tokens are needed.
+         * Only the tokens from {@code base} on are kept in the list.
+         */
+        private TokenStream(Iterator<Token> source) {
+            this.tokens = new ArrayList<>();
+            this.buffer = null;
+            this.symbols = null;
+            this.source = source;
+        }
+
+        /**
+         * Reads tokens from the source until there is one at {@code index},
+         * returning true if there is.
+         */
+        private boolean fill(int index) {
+            while (source != null && index - base >= tokens.size() && source.hasNext()) {
+                tokens.add(source.next());
+            }
+            return index - base < tokens.size();
+        }
+
+        /**
+         * Releases the tokens read from the source before the previous one,
+         * which is still needed for the index of an error after it.
+         */
+        public void release() {
+            int released = index - 1 - base;
+            if (source != null && released > 0) {
+                tokens.subList(0, released).clear();
+                base += released;
+            }
         }
 
         /**
          * Returns true if there is a token at index + offset.
          */
         public boolean has(int offset) {
-            return index + offset < tokens.size();
+            return fill(index + offset);
         }
 
         /**
          * Gets the token at index + offset.
          */
         public Token get(int offset) {
-            return tokens.get(index + offset);
+            fill(index + offset);
+            return tokens.get(index + offset - base);
+        }
+
+        /**
+         * Gets the type of the token at index + offset.
+         */
+        public Token.Type type(int offset) {
+            return buffer != null ? buffer.getType(index + offset) : get(offset).getType();
+        }
+
+        /**
+         * Gets the keyword of the token at index + offset, if any.
+         */
+        public Token.Keyword keyword(int offset) {
+            return buffer != null ? buffer.getKeyword(index + offset) : get(offset).getKeyword();
+        }
+
+        /**
+         * Gets the literal of the token at index + offset.
+         */
+        public String literal(int offset) {
+            return buffer != null ? buffer.getLiteral(index + offset, symbols) : get(offset).getLiteral();
+        }
+
+        /**
+         * Gets the value of the token at index + offset (see {@link
+         * Token#getValue()}).
+         */
+        public String value(int offset) {
+            return buffer != null ? buffer.getValue(index + offset) : get(offset).getValue();
+        }
+
+        /**
+         * Returns true if the literal of the token at index + offset is equal
+         * to the given literal.
+         */
+        public boolean matches(int offset, String literal) {
+            return buffer != null ? buffer.matches(index + offset, literal) : literal.equals(get(offset).getLiteral());
+        }
+
+        /**
+         * Gets the index of the first character of the token at index + offset.
+         */
+        public int start(int offset) {
+            return buffer != null ? buffer.getStart(index + offset) : get(offset).getIndex();
+        }
+
+        /**
+         * Gets the index just past the last character of the token at index +
+         * offset.
+         */
+        public int end(int offset) {
+            return buffer != null ? buffer.getEnd(index + offset) : get(offset).getIndex() + get(offset).getLiteral().length();
         }
 
         /**
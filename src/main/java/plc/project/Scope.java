@@ -10,6 +10,7 @@ public final class Scope {
 
     private final Scope parent;
     private final Map<String, Environment.Variable> variables = new HashMap<>();
+    private final Map<String, Integer> slots = new HashMap<>();
     private final Map<String, Environment.Function> functions = new HashMap<>();
 
     public Scope(Scope parent) {
@@ -29,6 +30,7 @@ public final class Scope {
             throw new RuntimeException("The variable " + name + " is already defined in this scope.");
         } else {
             Environment.Variable variable = new Environment.Variable(name, jvmName, type, mutable, value);
+            slots.put(variable.getName(), variables.size());
             variables.put(variable.getName(), variable);
             return variables.get(name);
         }
@@ -44,6 +46,16 @@ public final class Scope {
         }
     }
 
+    /**
+     * Returns the slot of the variable {@code name} defined in this scope (not
+     * its parents), which is the number of variables defined here before it,
+     * or -1 if it isn't defined here. Together with the number of parents up
+     * to this scope, this is the variable's address in a frame per scope.
+     */
+    public int getSlot(String name) {
+        return slots.getOrDefault(name, -1);
+    }
+
     public void defineFunction(String name, int arity, Function<List<Environment.PlcObject>, Environment.PlcObject> function) {
         List<Environment.Type> parameterTypes = new ArrayList<>();
         for (int i = 0; i < arity; i++) {
@@ -0,0 +1,125 @@
+package plc.project;
+
+/**
+ * Interns the literals of identifier and operator tokens, so every occurrence
+ * of a name in a compilation shares one {@code String}. Since that string's
+ * hash is cached and {@link String#equals(Object)} checks identity first,
+ * looking a name up in a map (such as in {@link Scope}) doesn't need to hash
+ * or compare its characters again.
+ * <p>
+ * A table is created for each {@link Lexer} unless one is passed in, and it is
+ * not thread safe.
+ */
+public final class SymbolTable {
+
+    private String[] symbols = new String[64];
+    private int[] hashes = new int[64];
+    private int size = 0;
+
+    /**
+     * Returns the interned string equal to the characters of {@code chars}
+     * from {@code start} to {@code end}, creating it only if it is new.
+     */
+    public String intern(CharSequence chars, int start, int end) {
+        int hash = 0;
+        for (int i = start; i < end; i++) {
+            hash = 31 * hash + chars.charAt(i);
+        }
+        int mask = symbols.length - 1;
+        int slot = mix(hash) & mask;
+        while (symbols[slot] != null) {
+            if (hashes[slot] == hash && matches(symbols[slot], chars, start, end)) {
+                return symbols[slot];
+            }
+            slot = (slot + 1) & mask;
+        }
+        String symbol = chars.subSequence(start, end).toString();
+        symbol.hashCode(); //caches the hash, which is the same as computed above
+        symbols[slot] = symbol;
+        hashes[slot] = hash;
+        if (++size > symbols.length / 2) {
+            resize();
+        }
+        return symbol;
+    }
+
+    /**
+     * Returns the interned string equal to {@code string}.
+     */
+    public String intern(String string) {
+        return intern(string, 0, string.length());
+    }
+
+    /**
+     * Returns the number of distinct symbols in the table.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns an estimate of the bytes used by the table and its strings,
+     * assuming a 64-bit JVM with compressed references and compact strings.
+     */
+    public long getMemoryUsage() {
+        long bytes = 16 + 2 * align(16 + 4L * symbols.length);
+        for (String symbol : symbols) {
+            if (symbol != null) {
+                boolean latin1 = symbol.chars().allMatch(c -> c < 256);
+                bytes += 24 + align(16 + (latin1 ? 1L : 2L) * symbol.length());
+            }
+        }
+        return bytes;
+    }
+
+    @Override
+    public String toString() {
+        return "SymbolTable{" +
+                "size=" + size +
+                ", memoryUsage=" + getMemoryUsage() +
+                '}';
+    }
+
+    private void resize() {
+        String[] oldSymbols = symbols;
+        int[] oldHashes = hashes;
+        symbols = new String[2 * oldSymbols.length];
+        hashes = new int[2 * oldSymbols.length];
+        int mask = symbols.length - 1;
+        for (int i = 0; i < oldSymbols.length; i++) {
+            if (oldSymbols[i] != null) {
+                int slot = mix(oldHashes[i]) & mask;
+                while (symbols[slot] != null) {
+                    slot = (slot + 1) & mask;
+                }
+                symbols[slot] = oldSymbols[i];
+                hashes[slot] = oldHashes[i];
+            }
+        }
+    }
+
+    private static boolean matches(String symbol, CharSequence chars, int start, int end) {
+        if (symbol.length() != end - start) {
+            return false;
+        }
+        for (int i = 0; i < symbol.length(); i++) {
+            if (symbol.charAt(i) != chars.charAt(start + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Spreads the bits of a string hash, which for short names differ mostly
+     * in the low bits, before it is masked to a slot.
+     */
+    private static int mix(int hash) {
+        return hash ^ (hash >>> 16) ^ (hash >>> 7);
+    }
+
+    private static long align(long bytes) {
+        return (bytes + 7) & ~7L;
+    }
+
+}
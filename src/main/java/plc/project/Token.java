@@ -1,5 +1,7 @@
 package plc.project;
 
+import java.nio.ByteBuffer;
+
 public final class Token {
 
     public enum Type {
@@ -11,14 +13,116 @@ public final class Token {
         OPERATOR
     }
 
+    /**
+     * The reserved words of the language. These are still lexed as {@link
+     * Type#IDENTIFIER} tokens, as in the grammar, but are recognized when the
+     * token is created so the parser can compare keywords by identity rather
+     * than by their literal.
+     */
+    public enum Keyword {
+        FUN, DO, END, LET, IF, ELSE, SWITCH, CASE, DEFAULT, WHILE, RETURN, LIST, VAR, VAL, NIL, TRUE, FALSE;
+
+        private static final Keyword[] TABLE = new Keyword[64];
+
+        static {
+            for (Keyword keyword : values()) {
+                String name = keyword.name();
+                int slot = hash(name.length(), name.charAt(0), name.charAt(name.length() - 1));
+                if (TABLE[slot] != null) {
+                    throw new AssertionError("Keyword hash collision: " + keyword + " and " + TABLE[slot] + ".");
+                }
+                TABLE[slot] = keyword;
+            }
+        }
+
+        /**
+         * A perfect hash of the keywords, meaning each has a distinct slot in
+         * the table, so any other text only needs one comparison to reject.
+         */
+        private static int hash(int length, char first, char last) {
+            return (first + last + 5 * length) & 63;
+        }
+
+        /**
+         * Returns the keyword spelled by the characters from {@code start} to
+         * {@code end}, or {@code null} if they are not a keyword.
+         */
+        public static Keyword of(CharSequence text, int start, int end) {
+            int length = end - start;
+            if (length < 2 || length > 7) {
+                return null;
+            }
+            Keyword keyword = TABLE[hash(length, text.charAt(start), text.charAt(end - 1))];
+            if (keyword == null || keyword.name().length() != length) {
+                return null;
+            }
+            for (int i = 0; i < length; i++) {
+                if (keyword.name().charAt(i) != text.charAt(start + i)) {
+                    return null;
+                }
+            }
+            return keyword;
+        }
+
+        /**
+         * As {@link #of(CharSequence, int, int)}, for encoded bytes. Keywords
+         * are ASCII, so this does not need to decode them.
+         */
+        static Keyword of(ByteBuffer bytes, int start, int end) {
+            int length = end - start;
+            if (length < 2 || length > 7) {
+                return null;
+            }
+            Keyword keyword = TABLE[hash(length, (char) bytes.get(start), (char) bytes.get(end - 1))];
+            if (keyword == null || keyword.name().length() != length) {
+                return null;
+            }
+            for (int i = 0; i < length; i++) {
+                if (keyword.name().charAt(i) != bytes.get(start + i)) {
+                    return null;
+                }
+            }
+            return keyword;
+        }
+
+    }
+
     private final Type type;
-    private final String literal;
+    private Object literal; //the literal String, or a Slice until first accessed
     private final int index;
+    private final Keyword keyword;
+    private final int line;
+    private final int column;
 
     public Token(Type type, String literal, int index) {
+        this(type, literal, index, 0, 0);
+    }
+
+    /**
+     * Creates a token which also knows its line and column, as created by the
+     * {@link Lexer}.
+     */
+    Token(Type type, String literal, int index, int line, int column) {
         this.type = type;
         this.literal = literal;
         this.index = index;
+        this.keyword = type == Type.IDENTIFIER ? Keyword.of(literal, 0, literal.length()) : null;
+        this.line = line;
+        this.column = column;
+    }
+
+    /**
+     * Creates a token whose literal is the UTF-8 encoded bytes from {@code
+     * start} to {@code end}, which is only decoded by {@link #getLiteral()}.
+     * The bytes must not be modified afterwards.
+     */
+    Token(Type type, ByteBuffer bytes, int start, int end, int index, int line, int column) {
+        this.type = type;
+        this.literal = new Slice(bytes, start, end);
+        this.index = index;
+        this.keyword = type == Type.IDENTIFIER ? Keyword.of(bytes, start, end) : null;
+        this.line = line;
+        this.column = column;
     }
 
     public Type getType() {
@@ -26,6 +130,22 @@ public final class Token {
     }
 
     public String getLiteral() {
+        if (literal instanceof Slice) {
+            literal = ((Slice) literal).decode();
+        }
+        return (String) literal;
+    }
+
+    /**
+     * Returns the value of a string or character literal, which is its
+     * contents with the quotes removed and escapes decoded, or otherwise the
+     * literal itself.
+     */
+    public String getValue() {
+        String literal = getLiteral();
+        if (type == Type.STRING || type == Type.CHARACTER) {
+            return Lexer.unescape(literal, 1, literal.length() - 1);
+        }
         return literal;
     }
 
@@ -33,17 +153,66 @@ public final class Token {
         return index;
     }
 
+    /**
+     * Returns the line of the token's first character, starting from 1, or 0
+     * if the token wasn't created by a {@link Lexer} (such as one from a
+     * {@link TokenBuffer}).
+     */
+    public int getLine() {
+        return line;
+    }
+
+    /**
+     * Returns the column of the token's first character, starting from 1, or 0
+     * if the line is unknown.
+     */
+    public int getColumn() {
+        return column;
+    }
+
+    /**
+     * Returns the keyword this token spells, or {@code null} if it is not an
+     * identifier matching one of the {@link Keyword}s.
+     */
+    public Keyword getKeyword() {
+        return keyword;
+    }
+
     @Override
     public boolean equals(Object obj) {
         return obj instanceof Token
                 && type == ((Token) obj).type
-                && literal.equals(((Token) obj).literal)
+                && getLiteral().equals(((Token) obj).getLiteral())
                 && index == ((Token) obj).index;
     }
 
     @Override
     public String toString() {
-        return type + "=" + literal + "@" + index;
+        return type + "=" + getLiteral() + "@" + index;
+    }
+
+    private static final class Slice {
+
+        private final ByteBuffer bytes;
+        private final int start;
+        private final int end;
+
+        private Slice(ByteBuffer bytes, int start, int end) {
+            this.bytes = bytes;
+            this.start = start;
+            this.end = end;
+        }
+
+        private String decode() {
+            StringBuilder builder = new StringBuilder(end - start);
+            for (int position = start; position < end; ) {
+                int decoded = Lexer.decode(bytes, position);
+                builder.appendCodePoint(decoded >>> 3);
+                position += decoded & 7;
+            }
+            return builder.toString();
+        }
+
     }
 
 }
@@ -0,0 +1,190 @@
+package plc.project;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.RandomAccess;
+
+/**
+ * A compact list of the tokens lexed from a source string, created by {@link
+ * Lexer#lexBuffer()}. Instead of a {@link Token} object (and literal string)
+ * per token, the buffer stores each token's type ordinal in a {@code byte[]}
+ * and its start and end offsets in {@code int[]}s, which (with a byte for its
+ * {@link Token.Keyword}) is ten bytes per token and keeps neighbouring tokens
+ * next to each other in memory. The arrays grow as tokens are added, starting
+ * from an estimate based on the length of the source.
+ * <p>
+ * The buffer is also a {@code List<Token>}, creating tokens on demand in
+ * {@link #get(int)}, so it can be used anywhere the output of {@link
+ * Lexer#lex()} is. The {@link Parser} reads the arrays directly instead.
+ */
+public final class TokenBuffer extends AbstractList<Token> implements RandomAccess {
+
+    private static final Token.Type[] TYPES = Token.Type.values();
+    private static final Token.Keyword[] KEYWORDS = Token.Keyword.values();
+
+    private final String source;
+    private final SymbolTable symbols;
+    private byte[] types;
+    private byte[] keywords; //keyword ordinal + 1, or 0 for none
+    private int[] starts;
+    private int[] ends;
+    private int size = 0;
+
+    public TokenBuffer(String source) {
+        this(source, new SymbolTable());
+    }
+
+    public TokenBuffer(String source, SymbolTable symbols) {
+        this.source = source;
+        this.symbols = symbols;
+        //code measures about four characters per token, so start at half that
+        //density: sparse sources with long comments or strings don't allocate
+        //for tokens they don't have, and dense ones grow at most twice
+        int capacity = Math.max(16, source.length() / 8);
+        this.types = new byte[capacity];
+        this.keywords = new byte[capacity];
+        this.starts = new int[capacity];
+        this.ends = new int[capacity];
+    }
+
+    /**
+     * Appends a token spanning from {@code start} to {@code end} in the source.
+     */
+    void add(Token.Type type, int start, int end) {
+        if (size == types.length) {
+            int capacity = size + (size >> 1) + 1;
+            types = Arrays.copyOf(types, capacity);
+            keywords = Arrays.copyOf(keywords, capacity);
+            starts = Arrays.copyOf(starts, capacity);
+            ends = Arrays.copyOf(ends, capacity);
+        }
+        types[size] = (byte) type.ordinal();
+        Token.Keyword keyword = type == Token.Type.IDENTIFIER ? Token.Keyword.of(source, start, end) : null;
+        keywords[size] = (byte) (keyword != null ? keyword.ordinal() + 1 : 0);
+        starts[size] = start;
+        ends[size] = end;
+        size++;
+    }
+
+    /**
+     * Appends the tokens of {@code other} from {@code from} to {@code to},
+     * shifting their offsets by {@code shift}.
+     */
+    void addAll(TokenBuffer other, int from, int to, int shift) {
+        int count = to - from;
+        if (size + count > types.length) {
+            int capacity = Math.max(size + count, size + (size >> 1) + 1);
+            types = Arrays.copyOf(types, capacity);
+            keywords = Arrays.copyOf(keywords, capacity);
+            starts = Arrays.copyOf(starts, capacity);
+            ends = Arrays.copyOf(ends, capacity);
+        }
+        System.arraycopy(other.types, from, types, size, count);
+        System.arraycopy(other.keywords, from, keywords, size, count);
+        for (int i = 0; i < count; i++) {
+            starts[size + i] = other.starts[from + i] + shift;
+            ends[size + i] = other.ends[from + i] + shift;
+        }
+        size += count;
+    }
+
+    /**
+     * Returns the index of the token starting at {@code start}, or a negative
+     * number if no token does.
+     */
+    int indexOfStart(int start) {
+        return Arrays.binarySearch(starts, 0, size, start);
+    }
+
+    public String getSource() {
+        return source;
+    }
+
+    /**
+     * Returns the table interning identifier and operator literals, as with
+     * {@link Lexer#getSymbols()}.
+     */
+    public SymbolTable getSymbols() {
+        return symbols;
+    }
+
+    public Token.Type getType(int index) {
+        Objects.checkIndex(index, size);
+        return TYPES[types[index]];
+    }
+
+    /**
+     * Returns the keyword of the token as in {@link Token#getKeyword()}.
+     */
+    public Token.Keyword getKeyword(int index) {
+        Objects.checkIndex(index, size);
+        return keywords[index] != 0 ? KEYWORDS[keywords[index] - 1] : null;
+    }
+
+    /**
+     * Returns the offset of the first character of the token, which is the
+     * same as {@link Token#getIndex()}.
+     */
+    public int getStart(int index) {
+        Objects.checkIndex(index, size);
+        return starts[index];
+    }
+
+    /**
+     * Returns the offset just past the last character of the token.
+     */
+    public int getEnd(int index) {
+        Objects.checkIndex(index, size);
+        return ends[index];
+    }
+
+    public String getLiteral(int index) {
+        return getLiteral(index, symbols);
+    }
+
+    /**
+     * Returns the literal of the token, interning identifiers and operators in
+     * {@code symbols} instead of the buffer's own table.
+     */
+    String getLiteral(int index, SymbolTable symbols) {
+        Objects.checkIndex(index, size);
+        if (types[index] == Token.Type.IDENTIFIER.ordinal() || types[index] == Token.Type.OPERATOR.ordinal()) {
+            return symbols.intern(source, starts[index], ends[index]);
+        }
+        return source.substring(starts[index], ends[index]);
+    }
+
+    /**
+     * Returns the value of the token as with {@link Token#getValue()},
+     * decoding a string or character literal straight from the source.
+     */
+    public String getValue(int index) {
+        Objects.checkIndex(index, size);
+        if (types[index] == Token.Type.STRING.ordinal() || types[index] == Token.Type.CHARACTER.ordinal()) {
+            return Lexer.unescape(source, starts[index] + 1, ends[index] - 1);
+        }
+        return getLiteral(index);
+    }
+
+    /**
+     * Returns true if the token's literal is equal to {@code literal}, without
+     * creating the literal string.
+     */
+    public boolean matches(int index, String literal) {
+        Objects.checkIndex(index, size);
+        int length = ends[index] - starts[index];
+        return length == literal.length() && source.regionMatches(starts[index], literal, 0, length);
+    }
+
+    @Override
+    public Token get(int index) {
+        return new Token(getType(index), getLiteral(index), getStart(index));
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+}
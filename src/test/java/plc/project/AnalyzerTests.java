@@ -1,6 +1,7 @@
 package plc.project;
 
 import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.Arguments;
 import org.junit.jupiter.params.provider.MethodSource;
@@ -9,6 +10,7 @@ import java.lang.reflect.Array;
 import java.math.BigDecimal;
 import java.math.BigInteger;
 import java.util.Arrays;
+import java.util.List;
 import java.util.Optional;
 import java.util.function.Consumer;
 import java.util.stream.Stream;
@@ -489,6 +491,43 @@ public final class AnalyzerTests {
         );
     }
 
+    @Test
+    public void testAddress() {
+        Ast.Source source = new Parser(new Lexer(
+                "VAR g: Integer = 1;\n" +
+                "FUN f(a: Integer, b: Integer): Integer DO\n" +
+                "    LET c = a;\n" +
+                "    WHILE c < b DO\n" +
+                "        LET d = c + g;\n" +
+                "        c = d;\n" +
+                "    END\n" +
+                "    RETURN c;\n" +
+                "END\n" +
+                "FUN main(): Integer DO RETURN f(1, 2); END"
+        ).lex()).parseSource();
+        new Analyzer(new Scope(null)).visit(source);
+        List<Ast.Statement> statements = source.getFunctions().get(0).getStatements();
+        Ast.Statement.Declaration c = (Ast.Statement.Declaration) statements.get(0);
+        Assertions.assertEquals(2, c.getSlot());
+        assertAddress(0, 0, c.getValue().get());
+        Ast.Statement.While loop = (Ast.Statement.While) statements.get(1);
+        assertAddress(0, 2, ((Ast.Expression.Binary) loop.getCondition()).getLeft());
+        assertAddress(0, 1, ((Ast.Expression.Binary) loop.getCondition()).getRight());
+        Ast.Statement.Declaration d = (Ast.Statement.Declaration) loop.getStatements().get(0);
+        Assertions.assertEquals(0, d.getSlot());
+        assertAddress(1, 2, ((Ast.Expression.Binary) d.getValue().get()).getLeft());
+        assertAddress(2, 0, ((Ast.Expression.Binary) d.getValue().get()).getRight());
+        Ast.Statement.Assignment assignment = (Ast.Statement.Assignment) loop.getStatements().get(1);
+        assertAddress(1, 2, assignment.getReceiver());
+        assertAddress(0, 0, assignment.getValue());
+        assertAddress(0, 2, ((Ast.Statement.Return) statements.get(2)).getValue());
+    }
+
+    private static void assertAddress(int depth, int slot, Ast.Expression expression) {
+        Ast.Expression.Access access = (Ast.Expression.Access) expression;
+        Assertions.assertEquals(Arrays.asList(depth, slot), Arrays.asList(access.getDepth(), access.getSlot()), access.getName());
+    }
+
     @ParameterizedTest(name = "{0}")
     @MethodSource
     public void testFunctionExpression(String test, Ast.Expression.Function ast, Ast.Expression.Function expected) {
@@ -0,0 +1,147 @@
+package plc.project;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.stream.Stream;
+
+/**
+ * Tests serializing sources with the {@link AstSerializer} and caching them
+ * with the {@link AstCache}.
+ */
+final class AstCacheTests {
+
+    @ParameterizedTest
+    @MethodSource
+    void testSerialize(String test, String input) {
+        Ast.Source source = new Parser(new Lexer(input).lex()).parseSource();
+        Assertions.assertEquals(source, AstSerializer.deserialize(AstSerializer.serialize(source)));
+    }
+
+    private static Stream<Arguments> testSerialize() {
+        return Stream.of(
+                Arguments.of("Empty", ""),
+                Arguments.of("Globals", "VAR x: Integer = 1; VAL y = -2.50; LIST z: String = [\"a\\n\", 'b', NIL, TRUE, FALSE];"),
+                Arguments.of("Large Integers", "VAR x = 9223372036854775807; VAR y = -9223372036854775809; VAR z = 123456789012345678901234567890.0001;"),
+                Arguments.of("Function", "FUN f(x: Integer, y: String): Integer DO LET z = x * (y + 1); RETURN f(z[0], g()); END"),
+                Arguments.of("Blocks", "FUN main() DO IF x && y DO WHILE x < 10 DO x = x + 1; END ELSE LET y: Boolean; END SWITCH x CASE 1: print(x); DEFAULT END END")
+        );
+    }
+
+    @Test
+    void testMalformed() {
+        byte[] bytes = AstSerializer.serialize(new Parser(new Lexer("FUN main() DO print(\"Hello, World!\"); END").lex()).parseSource());
+        Assertions.assertThrows(IllegalArgumentException.class, () -> AstSerializer.deserialize(Arrays.copyOf(bytes, bytes.length - 1)));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> AstSerializer.deserialize(new byte[] {'P', 'L', 'C', 'A', 0}));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> AstSerializer.deserialize("not an ast".getBytes()));
+    }
+
+    @Test
+    void testDeeplyNested(@TempDir Path directory) throws IOException {
+        //VAR x: x = (((... with a million groups, which would overflow the stack when decoded recursively
+        byte[] header = {'P', 'L', 'C', 'A', 2, 1, 1, 1, 1, 'x', 2, 0};
+        byte[] bytes = Arrays.copyOf(header, header.length + 1_000_000);
+        Arrays.fill(bytes, header.length, bytes.length, (byte) 18);
+        Assertions.assertThrows(IllegalArgumentException.class, () -> AstSerializer.deserialize(bytes));
+        String input = "VAR x = 1;";
+        Files.write(directory.resolve(AstCache.hash(input) + ".ast"), bytes);
+        Assertions.assertEquals(new Parser(new Lexer(input).lex()).parseSource(), new AstCache(directory).parse(input));
+    }
+
+    @Test
+    void testDeepSource(@TempDir Path directory) throws IOException {
+        //binary chains are parsed without recursion, so are cached at any length
+        StringBuilder chain = new StringBuilder("VAR x = 1");
+        for (int i = 0; i < 100_000; i++) {
+            chain.append(" + 1");
+        }
+        String input = chain.append(';').toString();
+        AstCache cache = new AstCache(directory);
+        cache.parse(input);
+        Ast.Expression.Binary value = (Ast.Expression.Binary) cache.parse(input).getGlobals().get(0).getValue().get();
+        Assertions.assertEquals(Arrays.asList(1, 1), Arrays.asList(cache.getHits(), cache.getMisses()));
+        Assertions.assertEquals("+", value.getOperator());
+        //other nesting is parsed each time once too deep to serialize
+        String groups = "VAR y = " + String.join("", Collections.nCopies(AstSerializer.MAX_DEPTH, "(")) + "1"
+                + String.join("", Collections.nCopies(AstSerializer.MAX_DEPTH, ")")) + ";";
+        Assertions.assertThrows(IllegalArgumentException.class, () -> AstSerializer.serialize(new Parser(new Lexer(groups).lex()).parseSource()));
+        Assertions.assertEquals(new Parser(new Lexer(groups).lex()).parseSource(), cache.parse(groups));
+        Assertions.assertEquals(new Parser(new Lexer(groups).lex()).parseSource(), cache.parse(groups));
+        Assertions.assertEquals(Arrays.asList(1, 3), Arrays.asList(cache.getHits(), cache.getMisses()));
+        Assertions.assertFalse(Files.exists(directory.resolve(AstCache.hash(groups) + ".ast")));
+    }
+
+    @Test
+    void testCache(@TempDir Path directory) throws IOException {
+        String input = "VAR x = 1; FUN main() DO print(x); END";
+        Ast.Source expected = new Parser(new Lexer(input).lex()).parseSource();
+        AstCache cache = new AstCache(directory);
+        Assertions.assertEquals(expected, cache.parse(input));
+        Assertions.assertEquals(expected, cache.parse(input));
+        Assertions.assertEquals(1, cache.getHits());
+        Assertions.assertEquals(1, cache.getMisses());
+        //a corrupted entry is parsed and written again
+        Path path = directory.resolve(AstCache.hash(input) + ".ast");
+        Files.write(path, new byte[] {1, 2, 3});
+        Assertions.assertEquals(expected, cache.parse(input));
+        Assertions.assertEquals(2, cache.getMisses());
+        Assertions.assertEquals(expected, AstSerializer.deserialize(Files.readAllBytes(path)));
+        Assertions.assertThrows(ParseException.class, () -> cache.parse("VAR x = ;"));
+    }
+
+    /**
+     * Prints the time to deserialize a large generated module against the
+     * time to lex and parse it, as {@link AstCache} does on a miss. Run with
+     * {@code gradle benchmark}; timings depend on the machine and JIT, so
+     * nothing is asserted beyond the two agreeing.
+     */
+    @Test
+    @Tag("benchmark")
+    void benchmarkDeserialize() {
+        StringBuilder module = new StringBuilder();
+        for (int i = 0; i < 2000; i++) {
+            module.append("VAR g").append(i).append(": Integer = ").append(i).append(" * 2 + 1;\n");
+        }
+        for (int i = 0; i < 2000; i++) {
+            module.append("FUN f").append(i).append("(x: Integer): Integer DO\n")
+                    .append("    LET y = x + g").append(i).append(";\n")
+                    .append("    IF y > 10 && x != 0 DO\n")
+                    .append("        print(\"big\");\n")
+                    .append("    ELSE\n")
+                    .append("        y = y * (x - 1) / 2;\n")
+                    .append("    END\n")
+                    .append("    RETURN f").append(i).append("(y - 1);\n")
+                    .append("END\n");
+        }
+        String input = module.toString();
+        byte[] bytes = AstSerializer.serialize(new Parser(new Lexer(input).lexBuffer()).parseSource());
+        long parseFirst = 0, parseBest = Long.MAX_VALUE, deserializeFirst = 0, deserializeBest = Long.MAX_VALUE;
+        for (int round = 0; round < 20; round++) {
+            long start = System.nanoTime();
+            Ast.Source parsed = new Parser(new Lexer(input).lexBuffer()).parseSource();
+            long parse = System.nanoTime() - start;
+            start = System.nanoTime();
+            Ast.Source deserialized = AstSerializer.deserialize(bytes);
+            long deserialize = System.nanoTime() - start;
+            Assertions.assertEquals(parsed, deserialized);
+            parseFirst = round == 0 ? parse : parseFirst;
+            deserializeFirst = round == 0 ? deserialize : deserializeFirst;
+            parseBest = Math.min(parseBest, parse);
+            deserializeBest = Math.min(deserializeBest, deserialize);
+        }
+        System.out.printf("%d chars, %d bytes serialized%n", input.length(), bytes.length);
+        System.out.printf("lex+parse:   first %.2f ms, best %.2f ms%n", parseFirst / 1e6, parseBest / 1e6);
+        System.out.printf("deserialize: first %.2f ms, best %.2f ms%n", deserializeFirst / 1e6, deserializeBest / 1e6);
+    }
+
+}
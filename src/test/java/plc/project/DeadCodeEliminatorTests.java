@@ -0,0 +1,98 @@
+package plc.project;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.stream.Stream;
+
+/**
+ * Tests eliminating the dead code of analyzed sources with the {@link
+ * DeadCodeEliminator}, comparing the generated code of the eliminated source
+ * to that of the expected one.
+ */
+final class DeadCodeEliminatorTests {
+
+    @ParameterizedTest
+    @MethodSource
+    void testEliminate(String test, String input, String expected, int removed) {
+        DeadCodeEliminator eliminator = new DeadCodeEliminator();
+        Ast.Source eliminated = eliminator.visit(analyze(input));
+        Assertions.assertEquals(generate(analyze(expected)), generate(eliminated));
+        Assertions.assertEquals(removed, eliminator.getRemoved());
+        Assertions.assertSame(eliminated, new DeadCodeEliminator().visit(eliminated));
+    }
+
+    private static Stream<Arguments> testEliminate() {
+        return Stream.of(
+                Arguments.of("Live",
+                        "FUN main(): Integer DO print(1); RETURN 0; END",
+                        "FUN main(): Integer DO print(1); RETURN 0; END",
+                        0),
+                Arguments.of("After Return",
+                        "FUN main(): Integer DO RETURN 0; print(1); LET x = 2; END",
+                        "FUN main(): Integer DO RETURN 0; END",
+                        5),
+                Arguments.of("After If",
+                        "VAR b: Boolean = TRUE; FUN main(): Integer DO IF b DO RETURN 1; ELSE RETURN 2; END print(3); RETURN 0; END",
+                        "VAR b: Boolean = TRUE; FUN main(): Integer DO IF b DO RETURN 1; ELSE RETURN 2; END END",
+                        5),
+                Arguments.of("After While True",
+                        "FUN main(): Integer DO WHILE TRUE DO RETURN 1; END RETURN 0; END",
+                        "FUN main(): Integer DO WHILE TRUE DO RETURN 1; END END",
+                        2),
+                Arguments.of("While False",
+                        "FUN main(): Integer DO WHILE FALSE DO print(1); END RETURN 0; END",
+                        "FUN main(): Integer DO RETURN 0; END",
+                        5),
+                Arguments.of("Required While False",
+                        "VAR b: Boolean = TRUE; FUN main(): Integer DO IF b DO WHILE FALSE DO END END RETURN 0; END",
+                        "VAR b: Boolean = TRUE; FUN main(): Integer DO IF b DO WHILE FALSE DO END END RETURN 0; END",
+                        0),
+                Arguments.of("Required Else While False",
+                        "VAR b: Boolean = TRUE; FUN main(): Integer DO IF b DO ELSE WHILE FALSE DO END END RETURN 0; END",
+                        "VAR b: Boolean = TRUE; FUN main(): Integer DO IF b DO ELSE WHILE FALSE DO END END RETURN 0; END",
+                        0),
+                Arguments.of("Emptied Then While False",
+                        "VAR b: Boolean = TRUE; FUN main(): Integer DO IF b DO WHILE FALSE DO END ELSE print(1); END RETURN 0; END",
+                        "VAR b: Boolean = TRUE; FUN main(): Integer DO IF b DO ELSE print(1); END RETURN 0; END",
+                        2),
+                Arguments.of("Switch Match",
+                        "FUN main(): Integer DO SWITCH 2 CASE 1: print(1); CASE 2: print(2); CASE 3: print(3); DEFAULT print(0); END RETURN 0; END",
+                        "FUN main(): Integer DO SWITCH 2 CASE 2: print(2); CASE 3: print(3); DEFAULT print(0); END RETURN 0; END",
+                        5),
+                Arguments.of("Switch Default",
+                        "FUN main(): Integer DO SWITCH 'c' CASE 'a': print(1); CASE 'b': print(2); DEFAULT print(0); END RETURN 0; END",
+                        "FUN main(): Integer DO SWITCH 'c' DEFAULT print(0); END RETURN 0; END",
+                        10),
+                Arguments.of("Switch Variable",
+                        "VAR x: Integer = 1; FUN main(): Integer DO SWITCH x CASE 2: print(2); DEFAULT print(0); END RETURN 0; END",
+                        "VAR x: Integer = 1; FUN main(): Integer DO SWITCH x CASE 2: print(2); DEFAULT print(0); END RETURN 0; END",
+                        0),
+                Arguments.of("Unreachable Functions",
+                        "FUN f(): Integer DO RETURN 1; END FUN g(): Integer DO RETURN f(); END FUN h(): Integer DO RETURN 2; END FUN main(): Integer DO RETURN g(); END",
+                        "FUN f(): Integer DO RETURN 1; END FUN g(): Integer DO RETURN f(); END FUN main(): Integer DO RETURN g(); END",
+                        3),
+                Arguments.of("Unreachable Call",
+                        "FUN f(): Integer DO RETURN 1; END FUN main(): Integer DO RETURN 0; print(f()); END",
+                        "FUN main(): Integer DO RETURN 0; END",
+                        6)
+        );
+    }
+
+    private static Ast.Source analyze(String input) {
+        Ast.Source source = new Parser(new Lexer(input).lex()).parseSource();
+        new Analyzer(new Scope(null)).visit(source);
+        return source;
+    }
+
+    private static String generate(Ast.Source source) {
+        StringWriter writer = new StringWriter();
+        new Generator(new PrintWriter(writer)).visit(source);
+        return writer.toString();
+    }
+
+}
@@ -0,0 +1,57 @@
+package plc.project;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+/**
+ * Tests encoding sources as a {@link FlatAst}.
+ */
+final class FlatAstTests {
+
+    @ParameterizedTest
+    @MethodSource
+    void testConvert(String test, String input) {
+        Ast.Source source = new Parser(new Lexer(input).lex()).parseSource();
+        Assertions.assertEquals(source, FlatAst.of(source).toSource());
+    }
+
+    private static Stream<Arguments> testConvert() {
+        return Stream.of(
+                Arguments.of("Empty", ""),
+                Arguments.of("Globals", "VAR x: Integer = 1; VAL y = NIL; LIST z: String = [\"a\", 'b', TRUE];"),
+                Arguments.of("Function", "FUN f(x: Integer, y: String): Integer DO LET z = x * (y + 1); LET w; RETURN f(z[0], g()); END"),
+                Arguments.of("Blocks", "FUN main() DO IF x DO x = 1; ELSE y; z; END SWITCH x CASE 1: print(x); DEFAULT END WHILE x DO END END")
+        );
+    }
+
+    @Test
+    void testPreorder() {
+        String input = "FUN f(x: Integer) DO RETURN x + 1; END";
+        FlatAst flat = FlatAst.of(new Parser(new Lexer(input).lex()).parseSource());
+        List<FlatAst.Kind> kinds = new ArrayList<>();
+        for (int node = 0; node < flat.size(); node++) {
+            kinds.add(flat.getKind(node));
+        }
+        Assertions.assertEquals(Arrays.asList(FlatAst.Kind.SOURCE, FlatAst.Kind.FUNCTION, FlatAst.Kind.RETURN,
+                FlatAst.Kind.BINARY, FlatAst.Kind.ACCESS, FlatAst.Kind.LITERAL), kinds);
+        Assertions.assertEquals("f", flat.getName(1));
+        Assertions.assertEquals("x", flat.getParameter(1, 0));
+        Assertions.assertEquals("Integer", flat.getParameterTypeName(1, 0));
+        Assertions.assertEquals(Optional.empty(), flat.getTypeName(1));
+        Assertions.assertEquals("+", flat.getName(3));
+        Assertions.assertEquals(4, flat.getChild(3, 0));
+        Assertions.assertEquals(-1, flat.getChild(4, 0));
+        Assertions.assertEquals(BigInteger.ONE, flat.getValue(5));
+    }
+
+}
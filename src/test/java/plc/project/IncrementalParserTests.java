@@ -0,0 +1,65 @@
+package plc.project;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+
+import java.util.stream.Stream;
+
+/**
+ * Tests reparsing edited sources with the {@link IncrementalParser}.
+ */
+final class IncrementalParserTests {
+
+    private static final String INPUT = "VAR x = 1; VAL y = 2; FUN f() DO x; END FUN g() DO y; END FUN h() DO END";
+
+    @ParameterizedTest
+    @MethodSource
+    void testEdit(String test, int offset, int removed, String inserted) {
+        IncrementalParser parser = new IncrementalParser(INPUT);
+        parser.parse();
+        String edited = INPUT.substring(0, offset) + inserted + INPUT.substring(offset + removed);
+        Assertions.assertEquals(new Parser(new Lexer(edited).lex()).parseSource(), parser.edit(offset, removed, inserted));
+        Assertions.assertEquals(edited, parser.getInput());
+    }
+
+    private static Stream<Arguments> testEdit() {
+        return Stream.of(
+                Arguments.of("Global", 8, 1, "10"),
+                Arguments.of("Function", 33, 1, "z = 3"),
+                Arguments.of("Whitespace", 39, 1, "\n\n"),
+                Arguments.of("New Function", 39, 0, " FUN i() DO END"),
+                Arguments.of("Removed Function", 39, 18, ""),
+                Arguments.of("Merged Functions", 36, 15, ""),
+                Arguments.of("Extended Token", 9, 0, ".5")
+        );
+    }
+
+    @Test
+    void testReuse() {
+        IncrementalParser parser = new IncrementalParser(INPUT);
+        Ast.Source before = parser.parse();
+        Ast.Source after = parser.edit(INPUT.indexOf("y; END"), 1, "z");
+        Assertions.assertSame(before.getGlobals().get(0), after.getGlobals().get(0));
+        Assertions.assertSame(before.getGlobals().get(1), after.getGlobals().get(1));
+        Assertions.assertSame(before.getFunctions().get(0), after.getFunctions().get(0));
+        Assertions.assertNotSame(before.getFunctions().get(1), after.getFunctions().get(1));
+        Assertions.assertSame(before.getFunctions().get(2), after.getFunctions().get(2));
+    }
+
+    @Test
+    void testError() {
+        IncrementalParser parser = new IncrementalParser(INPUT);
+        parser.parse();
+        //a global after the functions is only an error once the function before it is reparsed
+        ParseException exception = Assertions.assertThrows(ParseException.class, () -> parser.edit(INPUT.indexOf("FUN g"), 3, "VAR"));
+        Assertions.assertEquals(INPUT.indexOf("FUN g"), exception.getIndex());
+        //the edit is kept, so undoing it parses the original input again
+        Assertions.assertEquals(new Parser(new Lexer(INPUT).lex()).parseSource(), parser.edit(INPUT.indexOf("FUN g"), 3, "FUN"));
+        Assertions.assertThrows(ParseException.class, () -> parser.edit(0, 0, "\""));
+        Assertions.assertEquals(new Parser(new Lexer(INPUT).lex()).parseSource(), parser.edit(0, 1, ""));
+    }
+
+}
@@ -6,8 +6,18 @@ import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.Arguments;
 import org.junit.jupiter.params.provider.MethodSource;
 
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 public class LexerTests {
@@ -27,6 +37,24 @@ public class LexerTests {
         );
     }
 
+    @ParameterizedTest
+    @MethodSource
+    void testKeyword(String test, String input, Token.Keyword expected) {
+        Assertions.assertEquals(expected, new Lexer(input).lexToken().getKeyword());
+        Assertions.assertEquals(expected, new Lexer(input).lexBuffer().getKeyword(0));
+    }
+
+    private static Stream<Arguments> testKeyword() {
+        return Stream.of(
+                Arguments.of("Keyword", "FUN", Token.Keyword.FUN),
+                Arguments.of("Longest Keyword", "DEFAULT", Token.Keyword.DEFAULT),
+                Arguments.of("Lowercase", "fun", null),
+                Arguments.of("Prefix", "FUNCTION", null),
+                Arguments.of("Same Hash", "FAN", null),
+                Arguments.of("String", "\"FUN\"", null)
+        );
+    }
+
     @ParameterizedTest
     @MethodSource
     void testInteger(String test, String input, boolean success) {
@@ -99,8 +127,13 @@ public class LexerTests {
         return Stream.of(
                 Arguments.of("Character", "(", true),
                 Arguments.of("Comparison", "!=", true),
+                Arguments.of("Logical And", "&&", true),
+                Arguments.of("Mixed Compound", "&|", false),
                 Arguments.of("Space", " ", false),
-                Arguments.of("Tab", "\t", false)
+                Arguments.of("Tab", "\t", false),
+                Arguments.of("Newline", "\n", false),
+                Arguments.of("Other Character", "#", true),
+                Arguments.of("Line Separator", "\u2028", true)
         );
     }
 
@@ -125,10 +158,200 @@ public class LexerTests {
                         new Token(Token.Type.STRING, "\"Hello, World!\"", 6),
                         new Token(Token.Type.OPERATOR, ")", 21),
                         new Token(Token.Type.OPERATOR, ";", 22)
+                )),
+                Arguments.of("Multiple Lines", "LET x = 5;\nprint(x);", Arrays.asList(
+                        new Token(Token.Type.IDENTIFIER, "LET", 0),
+                        new Token(Token.Type.IDENTIFIER, "x", 4),
+                        new Token(Token.Type.OPERATOR, "=", 6),
+                        new Token(Token.Type.INTEGER, "5", 8),
+                        new Token(Token.Type.OPERATOR, ";", 9),
+                        new Token(Token.Type.IDENTIFIER, "print", 11),
+                        new Token(Token.Type.OPERATOR, "(", 16),
+                        new Token(Token.Type.IDENTIFIER, "x", 17),
+                        new Token(Token.Type.OPERATOR, ")", 18),
+                        new Token(Token.Type.OPERATOR, ";", 19)
+                )),
+                Arguments.of("Other Characters", "x ?#\r\ny\u2028z", Arrays.asList(
+                        new Token(Token.Type.IDENTIFIER, "x", 0),
+                        new Token(Token.Type.OPERATOR, "?", 2),
+                        new Token(Token.Type.OPERATOR, "#", 3),
+                        new Token(Token.Type.IDENTIFIER, "y", 6),
+                        new Token(Token.Type.OPERATOR, "\u2028", 7),
+                        new Token(Token.Type.IDENTIFIER, "z", 8)
                 ))
         );
     }
 
+    @ParameterizedTest
+    @MethodSource("testExamples")
+    void testReader(String test, String input, List<Token> expected) {
+        Assertions.assertEquals(expected, new Lexer(new StringReader(input)).lex());
+        Assertions.assertEquals(expected, new Lexer(new StringReader(input)).stream().collect(Collectors.toList()));
+    }
+
+    @ParameterizedTest
+    @MethodSource("testExamples")
+    void testBuffer(String test, String input, List<Token> expected) {
+        TokenBuffer buffer = new Lexer(input).lexBuffer();
+        Assertions.assertEquals(expected, buffer);
+        for (int i = 0; i < expected.size(); i++) {
+            Assertions.assertEquals(expected.get(i).getType(), buffer.getType(i));
+            Assertions.assertEquals(expected.get(i).getIndex(), buffer.getStart(i));
+            Assertions.assertTrue(buffer.matches(i, expected.get(i).getLiteral()));
+        }
+    }
+
+    @ParameterizedTest
+    @MethodSource("testExamples")
+    void testMapped(String test, String input, List<Token> expected) {
+        Assertions.assertEquals(expected, new Lexer(ByteBuffer.wrap(input.getBytes(StandardCharsets.UTF_8))).lex());
+    }
+
+    @Test
+    void testMappedFile() throws IOException {
+        //indices are characters rather than bytes, so the two byte e doesn't shift print
+        Path path = Files.createTempFile("LexerTests", ".plc");
+        try {
+            Files.write(path, "\"caf\u00e9\";\nprint".getBytes(StandardCharsets.UTF_8));
+            Assertions.assertEquals(Arrays.asList(
+                    new Token(Token.Type.STRING, "\"caf\u00e9\"", 0),
+                    new Token(Token.Type.OPERATOR, ";", 6),
+                    new Token(Token.Type.IDENTIFIER, "print", 8)
+            ), Lexer.map(path).lex());
+        } finally {
+            Files.delete(path);
+        }
+    }
+
+    @Test
+    void testReaderLongToken() {
+        //a token longer than the buffer has to grow it rather than be split
+        String literal = "\"" + String.join("", Collections.nCopies(3 * Lexer.BUFFER_SIZE, "a")) + "\"";
+        Assertions.assertEquals(
+                Arrays.asList(new Token(Token.Type.IDENTIFIER, "x", 0), new Token(Token.Type.STRING, literal, 2)),
+                new Lexer(new StringReader("x " + literal)).lex()
+        );
+    }
+
+    @Test
+    void testReaderException() {
+        ParseException exception = Assertions.assertThrows(ParseException.class,
+                () -> new Lexer(new StringReader("x\n\"unterminated")).iterator().forEachRemaining(token -> {}));
+        Assertions.assertEquals(15, exception.getIndex());
+    }
+
+    @ParameterizedTest
+    @MethodSource
+    void testRecovery(String test, String input, List<Integer> indices, List<String> literals) {
+        List<ParseException> errors = new ArrayList<>();
+        List<Token> tokens = new Lexer(input).lex(errors);
+        Assertions.assertEquals(indices, errors.stream().map(ParseException::getIndex).collect(Collectors.toList()));
+        Assertions.assertEquals(literals, tokens.stream().map(Token::getLiteral).collect(Collectors.toList()));
+    }
+
+    private static Stream<Arguments> testRecovery() {
+        return Stream.of(
+                Arguments.of("No Errors", "x = 'a';", Arrays.asList(), Arrays.asList("x", "=", "'a'", ";")),
+                Arguments.of("Multiple Characters", "x = 'ab'; y", Arrays.asList(6), Arrays.asList("x", "=", ";", "y")),
+                Arguments.of("Unterminated String", "print(\"oops);\nx;", Arrays.asList(13), Arrays.asList("print", "(", "x", ";")),
+                Arguments.of("Invalid Escape", "\"a\\qb\" + '\\q' + ''", Arrays.asList(3, 11, 17), Arrays.asList("+", "+")),
+                Arguments.of("Escaped Quote", "'\\'' '\\q\\'' x", Arrays.asList(7), Arrays.asList("'\\''", "x"))
+        );
+    }
+
+    @ParameterizedTest
+    @MethodSource
+    void testRelex(String test, String input, int offset, int removed, String inserted) {
+        String edited = input.substring(0, offset) + inserted + input.substring(offset + removed);
+        TokenBuffer buffer = Lexer.relex(new Lexer(input).lexBuffer(), offset, removed, inserted);
+        Assertions.assertEquals(new Lexer(edited).lex(), buffer);
+        Assertions.assertEquals(edited, buffer.getSource());
+    }
+
+    private static Stream<Arguments> testRelex() {
+        return Stream.of(
+                Arguments.of("Insert Identifier", "LET x = 5;\nprint(x);", 5, 0, "yz"),
+                Arguments.of("Remove Token", "LET x = 5;\nprint(x);", 6, 4, ""),
+                Arguments.of("Replace Line", "LET x = 5;\nprint(x);\nx = 1;", 11, 9, "LET y = \"a b\";"),
+                Arguments.of("Extend Number", "x = 1 .5;", 5, 1, ""),
+                Arguments.of("Join Operator", "x = = y;", 3, 0, "="),
+                Arguments.of("Insert String", "print(x);", 6, 0, "\"a\" + "),
+                Arguments.of("Append", "x", 1, 0, " y")
+        );
+    }
+
+    @Test
+    void testPosition() {
+        Lexer lexer = new Lexer("LET x = 5;\r\n\n  print(x);\rx");
+        List<Token> tokens = lexer.lex();
+        Assertions.assertEquals(Arrays.asList(1, 1, 1, 1, 1, 3, 3, 3, 3, 3, 4),
+                tokens.stream().map(Token::getLine).collect(Collectors.toList()));
+        Assertions.assertEquals(Arrays.asList(1, 5, 7, 9, 10, 3, 8, 9, 10, 11, 1),
+                tokens.stream().map(Token::getColumn).collect(Collectors.toList()));
+        Assertions.assertEquals(new Lexer.Position(1, 11), lexer.position(10));
+        Assertions.assertEquals(new Lexer.Position(2, 1), lexer.position(12));
+        Assertions.assertEquals(new Lexer.Position(3, 2), lexer.position(14));
+        Assertions.assertEquals(new Lexer.Position(4, 1), lexer.position(25));
+    }
+
+    @Test
+    void testStreamLines() {
+        StringBuilder input = new StringBuilder();
+        for (int i = 0; i < 100_000; i++) {
+            input.append("x\n");
+        }
+        Lexer lexer = new Lexer(new StringReader(input + "y"));
+        List<Token> tokens = lexer.lex();
+        Assertions.assertEquals(100_001, tokens.get(tokens.size() - 1).getLine());
+        Assertions.assertEquals(new Lexer.Position(100_001, 1), lexer.position(input.length()));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> lexer.position(0));
+        //only the latest lines are kept, while a String keeps all of them
+        Assertions.assertTrue(lexer.lineCapacity() <= 16, () -> "line capacity " + lexer.lineCapacity());
+        Lexer string = new Lexer(input + "y");
+        string.lex();
+        Assertions.assertTrue(string.lineCapacity() > 100_000);
+        Assertions.assertEquals(new Lexer.Position(1, 1), string.position(0));
+    }
+
+    @Test
+    void testValue() {
+        String input = "x \"a\\tb\\\\\" '\\n' \"plain\"";
+        List<String> expected = Arrays.asList("x", "a\tb\\", "\n", "plain");
+        Assertions.assertEquals(expected, new Lexer(input).lex().stream().map(Token::getValue).collect(Collectors.toList()));
+        TokenBuffer buffer = new Lexer(input).lexBuffer();
+        for (int i = 0; i < buffer.size(); i++) {
+            Assertions.assertEquals(expected.get(i), buffer.getValue(i));
+        }
+    }
+
+    @Test
+    void testSymbols() {
+        SymbolTable symbols = new SymbolTable();
+        List<Token> tokens = new Lexer("x = x + \"x\";", symbols).lex();
+        Assertions.assertEquals(4, symbols.size()); //strings aren't interned
+        Assertions.assertSame(tokens.get(0).getLiteral(), tokens.get(2).getLiteral());
+        Assertions.assertSame(tokens.get(0).getLiteral(), new Lexer(new StringReader("x"), symbols).lexToken().getLiteral());
+        Assertions.assertSame(tokens.get(0).getLiteral(), new Lexer("x", symbols).lexBuffer().getLiteral(0));
+        Assertions.assertEquals(4, symbols.size());
+    }
+
+    @Test
+    void testParallel() {
+        String line = "LET x = \"a;b\" + 'c' + 1.5;\n";
+        String input = String.join("", Collections.nCopies(8 * Lexer.MIN_CHUNK_SIZE / line.length(), line));
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            Assertions.assertEquals(new Lexer(input).lex(), Lexer.lexParallel(input, pool));
+            //the first error in the input is reported, even if a later chunk fails sooner
+            String invalid = "\"unterminated\n" + input + "\"unterminated";
+            ParseException exception = Assertions.assertThrows(ParseException.class,
+                    () -> Lexer.lexParallel(invalid, pool));
+            Assertions.assertEquals(13, exception.getIndex());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
     @Test
     void testException() {
         ParseException exception = Assertions.assertThrows(ParseException.class,
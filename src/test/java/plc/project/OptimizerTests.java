@@ -0,0 +1,107 @@
+package plc.project;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.stream.Stream;
+
+/**
+ * Tests optimizing analyzed sources with the {@link Optimizer}, comparing the
+ * generated code of the optimized source to that of the expected one.
+ */
+final class OptimizerTests {
+
+    @ParameterizedTest
+    @MethodSource
+    void testOptimize(String test, String input, String expected) {
+        Ast.Source optimized = new Optimizer().visit(analyze(input));
+        Assertions.assertEquals(generate(analyze(expected)), generate(optimized));
+        Assertions.assertSame(optimized, new Optimizer().visit(optimized));
+    }
+
+    private static Stream<Arguments> testOptimize() {
+        return Stream.of(
+                Arguments.of("Integer Arithmetic",
+                        "VAR x: Integer = (1 + 2) * 3 - 4 / 2; FUN main(): Integer DO RETURN 2 ^ 10; END",
+                        "VAR x: Integer = 7; FUN main(): Integer DO RETURN 1024; END"),
+                Arguments.of("Decimal Arithmetic",
+                        "VAR x: Decimal = 1.5 * 2.0 + 1.0 / 2.0; FUN main(): Integer DO RETURN 0; END",
+                        "VAR x: Decimal = 3.5; FUN main(): Integer DO RETURN 0; END"),
+                Arguments.of("Comparison",
+                        "VAR b: Boolean = 1 < 2 && \"a\" == \"b\" || 1.5 > 1.0; FUN main(): Integer DO RETURN 0; END",
+                        "VAR b: Boolean = TRUE; FUN main(): Integer DO RETURN 0; END"),
+                Arguments.of("Concatenation",
+                        "VAR s: String = \"a\" + \"b\" + \"c\"; FUN main(): Integer DO RETURN 0; END",
+                        "VAR s: String = \"abc\"; FUN main(): Integer DO RETURN 0; END"),
+                Arguments.of("Identities",
+                        "VAR x: Integer = 1; VAR b: Boolean = TRUE; FUN main(): Integer DO print(x * 1 + 0); print(TRUE && b); print(b || FALSE); RETURN x * 0; END",
+                        "VAR x: Integer = 1; VAR b: Boolean = TRUE; FUN main(): Integer DO print(x); print(b); print(b); RETURN 0; END"),
+                Arguments.of("Division By Zero",
+                        "FUN main(): Integer DO RETURN 1 / 0; END",
+                        "FUN main(): Integer DO RETURN 1 / 0; END"),
+                Arguments.of("Integer Overflow",
+                        "FUN main(): Integer DO RETURN (2 ^ 40) / (2 ^ 20); END",
+                        "FUN main(): Integer DO RETURN (2 ^ 40) / 1048576; END"),
+                Arguments.of("Impure Operand",
+                        "FUN f(): Integer DO RETURN 1; END FUN main(): Integer DO RETURN f() * 0; END",
+                        "FUN f(): Integer DO RETURN 1; END FUN main(): Integer DO RETURN f() * 0; END"),
+                Arguments.of("If True",
+                        "FUN main(): Integer DO IF 1 < 2 DO print(1); ELSE print(2); END RETURN 0; END",
+                        "FUN main(): Integer DO print(1); RETURN 0; END"),
+                Arguments.of("If False",
+                        "FUN main(): Integer DO IF FALSE DO print(1); END RETURN 0; END",
+                        "FUN main(): Integer DO RETURN 0; END"),
+                Arguments.of("If Declaration",
+                        "FUN main(): Integer DO IF FALSE DO print(1); ELSE LET x = 2; print(x); END RETURN 0; END",
+                        "FUN main(): Integer DO IF TRUE DO LET x = 2; print(x); END RETURN 0; END"),
+                Arguments.of("Nested If",
+                        "VAR b: Boolean = TRUE; FUN main(): Integer DO IF b DO IF FALSE DO print(1); END END RETURN 0; END",
+                        "VAR b: Boolean = TRUE; FUN main(): Integer DO IF b DO IF FALSE DO print(1); END END RETURN 0; END"),
+                Arguments.of("Nested If Else",
+                        "VAR b: Boolean = TRUE; FUN main(): Integer DO IF b DO ELSE IF FALSE DO print(1); END END RETURN 0; END",
+                        "VAR b: Boolean = TRUE; FUN main(): Integer DO IF b DO ELSE IF FALSE DO print(1); END END RETURN 0; END"),
+                Arguments.of("Emptied Then",
+                        "VAR b: Boolean = TRUE; FUN main(): Integer DO IF b DO IF FALSE DO print(1); END ELSE print(2); END RETURN 0; END",
+                        "VAR b: Boolean = TRUE; FUN main(): Integer DO IF b DO ELSE print(2); END RETURN 0; END")
+        );
+    }
+
+    @Test
+    void testAddress() {
+        Ast.Source source = new Optimizer().visit(analyze(
+                "FUN main(): Integer DO\n" +
+                "    LET x = 1;\n" +
+                "    WHILE x < 10 DO\n" +
+                "        IF TRUE DO\n" +
+                "            x = x + 1;\n" +
+                "        END\n" +
+                "    END\n" +
+                "    RETURN x;\n" +
+                "END"
+        ));
+        Ast.Statement.While loop = (Ast.Statement.While) source.getFunctions().get(0).getStatements().get(1);
+        Ast.Statement.Assignment assignment = (Ast.Statement.Assignment) loop.getStatements().get(0);
+        //the access was in the scope of the IF, which was inlined into the loop
+        Ast.Expression.Access access = (Ast.Expression.Access) assignment.getReceiver();
+        Assertions.assertEquals(Arrays.asList(1, 0), Arrays.asList(access.getDepth(), access.getSlot()));
+    }
+
+    private static Ast.Source analyze(String input) {
+        Ast.Source source = new Parser(new Lexer(input).lex()).parseSource();
+        new Analyzer(new Scope(null)).visit(source);
+        return source;
+    }
+
+    private static String generate(Ast.Source source) {
+        StringWriter writer = new StringWriter();
+        new Generator(new PrintWriter(writer)).visit(source);
+        return writer.toString();
+    }
+
+}
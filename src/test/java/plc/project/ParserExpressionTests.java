@@ -96,6 +96,14 @@ final class ParserExpressionTests {
                 Arguments.of("Escape Character",
                         Arrays.asList(new Token(Token.Type.STRING, "\"Hello,\\nWorld!\"", 0)),
                         new Ast.Expression.Literal("Hello,\nWorld!")
+                ),
+                Arguments.of("Escaped Backslash",
+                        Arrays.asList(new Token(Token.Type.STRING, "\"a\\\\nb\\\\\\\"\"", 0)),
+                        new Ast.Expression.Literal("a\\nb\\\"")
+                ),
+                Arguments.of("Escaped Quote Character",
+                        Arrays.asList(new Token(Token.Type.CHARACTER, "'\\''", 0)),
+                        new Ast.Expression.Literal('\'')
                 )
         );
     }
@@ -189,6 +197,45 @@ final class ParserExpressionTests {
                                 new Ast.Expression.Access(Optional.empty(), "expr1"),
                                 new Ast.Expression.Access(Optional.empty(), "expr2")
                         )
+                ),
+                Arguments.of("Chained Multiplication",
+                        Arrays.asList(
+                                //expr1 * expr2 ^ expr3
+                                new Token(Token.Type.IDENTIFIER, "expr1", 0),
+                                new Token(Token.Type.OPERATOR, "*", 6),
+                                new Token(Token.Type.IDENTIFIER, "expr2", 8),
+                                new Token(Token.Type.OPERATOR, "^", 14),
+                                new Token(Token.Type.IDENTIFIER, "expr3", 16)
+                        ),
+                        new Ast.Expression.Binary("^",
+                                new Ast.Expression.Binary("*",
+                                        new Ast.Expression.Access(Optional.empty(), "expr1"),
+                                        new Ast.Expression.Access(Optional.empty(), "expr2")
+                                ),
+                                new Ast.Expression.Access(Optional.empty(), "expr3")
+                        )
+                ),
+                Arguments.of("Mixed Precedence",
+                        Arrays.asList(
+                                //expr1 + expr2 * expr3 < expr4
+                                new Token(Token.Type.IDENTIFIER, "expr1", 0),
+                                new Token(Token.Type.OPERATOR, "+", 6),
+                                new Token(Token.Type.IDENTIFIER, "expr2", 8),
+                                new Token(Token.Type.OPERATOR, "*", 14),
+                                new Token(Token.Type.IDENTIFIER, "expr3", 16),
+                                new Token(Token.Type.OPERATOR, "<", 22),
+                                new Token(Token.Type.IDENTIFIER, "expr4", 24)
+                        ),
+                        new Ast.Expression.Binary("<",
+                                new Ast.Expression.Binary("+",
+                                        new Ast.Expression.Access(Optional.empty(), "expr1"),
+                                        new Ast.Expression.Binary("*",
+                                                new Ast.Expression.Access(Optional.empty(), "expr2"),
+                                                new Ast.Expression.Access(Optional.empty(), "expr3")
+                                        )
+                                ),
+                                new Ast.Expression.Access(Optional.empty(), "expr4")
+                        )
                 )
         );
     }
@@ -1,17 +1,25 @@
 package plc.project;
 
 import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Assumptions;
+import org.junit.jupiter.api.Tag;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.Arguments;
 import org.junit.jupiter.params.provider.MethodSource;
 
+import java.lang.management.ManagementFactory;
 import java.math.BigDecimal;
 import java.math.BigInteger;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.ForkJoinPool;
 import java.util.function.Function;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 /**
@@ -515,6 +523,202 @@ final class ParserTests {
         test(input, expected, Parser::parseSource);
     }
 
+    @Test
+    void testTokenBuffer() {
+        String input = "VAR first: Integer = 1;\nFUN main(): Integer DO\n    WHILE first != 10 DO\n        print(first);\n        first = first + 1;\n    END\nEND";
+        Assertions.assertEquals(
+                new Parser(new Lexer(input).lex()).parseSource(),
+                new Parser(new Lexer(input).lexBuffer()).parseSource()
+        );
+        ParseException exception = Assertions.assertThrows(ParseException.class,
+                () -> new Parser(new Lexer("VAL name = expr").lexBuffer()).parseSource());
+        Assertions.assertEquals(15, exception.getIndex());
+    }
+
+    @Test
+    void testLazy() {
+        String input = "FUN first(): Integer DO\n    IF x DO\n        RETURN 1;\n    END\n    SWITCH x DEFAULT y; END\n    RETURN 2;\nEND\n"
+                + "FUN second(x: Integer) DO\n    WHILE x DO x = 1; END\nEND";
+        Ast.Source expected = new Parser(new Lexer(input).lex()).parseSource();
+        Ast.Source lazy = new Parser(new Lexer(input).lexBuffer(), true).parseSource();
+        Assertions.assertFalse(lazy.getFunctions().get(0).isMaterialized());
+        Assertions.assertEquals(Arrays.asList("x"), lazy.getFunctions().get(1).getParameters());
+        Assertions.assertFalse(lazy.getFunctions().get(1).isMaterialized());
+        Assertions.assertEquals(expected, lazy);
+        Assertions.assertTrue(lazy.getFunctions().get(0).isMaterialized());
+        //errors in the body are only thrown once it is accessed
+        Ast.Function invalid = new Parser(new Lexer("FUN main() DO x = ; END").lex(), true).parseFunction();
+        //printing doesn't parse the body, but comparing does
+        Assertions.assertTrue(invalid.toString().contains("statements=<unparsed>"));
+        Assertions.assertFalse(invalid.isMaterialized());
+        ParseException exception = Assertions.assertThrows(ParseException.class, () -> invalid.equals(new Ast.Function("main", Arrays.asList(), Arrays.asList(), Optional.empty(), Arrays.asList())));
+        Assertions.assertEquals(18, exception.getIndex());
+        exception = Assertions.assertThrows(ParseException.class, invalid::getStatements);
+        Assertions.assertEquals(18, exception.getIndex());
+    }
+
+    @Test
+    void testShare() {
+        String input = "FUN f() DO x = 1 + 2; LET y = (1 + 2) * x; print(x); END";
+        Ast.Source expected = new Parser(new Lexer(input).lex()).parseSource();
+        Ast.Source source = new Parser(new Lexer(input).lex(), false, true).parseSource();
+        Assertions.assertEquals(expected, source);
+        List<Ast.Statement> statements = source.getFunctions().get(0).getStatements();
+        Ast.Expression sum = ((Ast.Statement.Assignment) statements.get(0)).getValue();
+        Ast.Expression.Binary product = (Ast.Expression.Binary) ((Ast.Statement.Declaration) statements.get(1)).getValue().get();
+        Assertions.assertSame(sum, ((Ast.Expression.Group) product.getLeft()).getExpression());
+        //names depend on their scope, so they are never shared
+        Ast.Expression receiver = ((Ast.Statement.Assignment) statements.get(0)).getReceiver();
+        Assertions.assertEquals(receiver, product.getRight());
+        Assertions.assertNotSame(receiver, product.getRight());
+    }
+
+    @Test
+    void testFactory() {
+        AstFactory factory = new AstFactory.Pooled();
+        List<String> inputs = Arrays.asList(
+                "VAR x = 1; LIST y = [1, 2, 3]; FUN f(a: Boolean, b: Integer) DO IF a DO b; ELSE f(a, b); END END",
+                "FUN main() DO SWITCH x CASE 1: print(x); DEFAULT WHILE x DO x = x - 1; END END END",
+                "FUN g() DO END"
+        );
+        //the same factory is reused, so lists from an earlier source must not leak into later ones
+        for (String input : inputs) {
+            Ast.Source expected = new Parser(new Lexer(input).lex()).parseSource();
+            Ast.Source source = new Parser(new Lexer(input).lex(), false, false, factory).parseSource();
+            Assertions.assertEquals(expected, source);
+            Assertions.assertThrows(UnsupportedOperationException.class, () -> source.getFunctions().add(null));
+            Assertions.assertEquals(expected, new Parser(new Lexer(input).lexBuffer(), true, false, factory).parseSource());
+        }
+    }
+
+    @Test
+    void testDeclarations() {
+        String input = "VAR x = 1; FUN f() DO x; END FUN g(y: Integer) DO RETURN y; END";
+        Ast.Source expected = new Parser(new Lexer(input).lex()).parseSource();
+        Iterator<Ast> declarations = new Parser(new Lexer(input).iterator()).parseDeclarations();
+        List<Ast> actual = new ArrayList<>();
+        declarations.forEachRemaining(actual::add);
+        List<Ast> all = new ArrayList<>(expected.getGlobals());
+        all.addAll(expected.getFunctions());
+        Assertions.assertEquals(all, actual);
+        //the first function is returned before the rest of the input is lexed
+        Iterator<Ast> invalid = new Parser(new Lexer("FUN f() DO END VAR x = \"unterminated").iterator()).parseDeclarations();
+        Assertions.assertEquals(new Ast.Function("f", Arrays.asList(), Arrays.asList(), Optional.empty(), Arrays.asList()), invalid.next());
+        ParseException exception = Assertions.assertThrows(ParseException.class, invalid::hasNext);
+        Assertions.assertEquals(15, exception.getIndex());
+    }
+
+    @ParameterizedTest
+    @MethodSource
+    void testRecovery(String test, String input, List<Integer> indices, String recovered) {
+        List<ParseException> errors = new ArrayList<>();
+        Ast.Source source = new Parser(new Lexer(input).lex()).parseSource(errors);
+        Assertions.assertEquals(indices, errors.stream().map(ParseException::getIndex).collect(Collectors.toList()));
+        Assertions.assertEquals(new Parser(new Lexer(recovered).lex()).parseSource(), source);
+    }
+
+    private static Stream<Arguments> testRecovery() {
+        return Stream.of(
+                Arguments.of("No Errors", "VAR x = 1; FUN f() DO y; END", Arrays.asList(), "VAR x = 1; FUN f() DO y; END"),
+                Arguments.of("Statements", "FUN f() DO x = ; y; z = 1 2; END", Arrays.asList(15, 26), "FUN f() DO y; END"),
+                Arguments.of("Nested Block", "FUN f() DO IF x DO y = ; END z; END", Arrays.asList(23), "FUN f() DO IF x DO END z; END"),
+                Arguments.of("Switch", "FUN f() DO SWITCH x CASE 1: y = ; DEFAULT z; END END VAR x = 1;", Arrays.asList(32, 53), "FUN f() DO SWITCH x CASE 1: DEFAULT z; END END"),
+                Arguments.of("Declarations", "VAR = 1; VAL y = 2; FUN f( DO END FUN g() DO END", Arrays.asList(4, 30), "VAL y = 2; FUN g() DO END"),
+                //FUN g is first parsed as a variable, then f is reported as unclosed, but errors are in source order
+                Arguments.of("Unclosed Block", "FUN f() DO WHILE x DO y; FUN g() DO END", Arrays.asList(25, 29), "FUN g() DO END"),
+                Arguments.of("Unclosed Nested Block", "FUN f() DO IF x DO y = ; FUN g() DO z = ; END", Arrays.asList(23, 25, 40), "FUN g() DO END")
+        );
+    }
+
+    @Test
+    void testParallel() {
+        StringBuilder builder = new StringBuilder("VAR count: Integer = 0;\n");
+        for (int i = 0; i < 100; i++) {
+            builder.append("FUN f").append(i).append("(x: Integer) DO\n    SWITCH x CASE 1: count = count + x; DEFAULT RETURN count; END\nEND\n");
+        }
+        String input = builder.toString();
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            Assertions.assertEquals(
+                    new Parser(new Lexer(input).lex()).parseSource(),
+                    new Parser(new Lexer(input).lexBuffer()).parseSourceParallel(pool)
+            );
+            //the error in the first body is reported, even though the second function's header is invalid too
+            ParseException exception = Assertions.assertThrows(ParseException.class,
+                    () -> new Parser(new Lexer("FUN a() DO x = ; END FUN b( DO END").lex()).parseSourceParallel(pool));
+            Assertions.assertEquals(15, exception.getIndex());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Prints the bytes allocated per {@code x = y;} statement when matching
+     * its four tokens through the varargs {@code match}, as every call did
+     * before the fixed-arity overloads, and through the overloads, and when
+     * parsing it. Run with {@code gradle benchmark}; the figures depend on
+     * the JVM and on what the JIT has compiled, so none are asserted.
+     */
+    @Test
+    @Tag("benchmark")
+    void benchmarkAllocation() {
+        Assumptions.assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        Assumptions.assumeTrue(bean.isThreadAllocatedMemorySupported() && bean.isThreadAllocatedMemoryEnabled());
+        long thread = Thread.currentThread().getId();
+        int statements = 10000;
+        TokenBuffer tokens = new Lexer(String.join("", Collections.nCopies(statements, "x = y;\n"))).lexBuffer();
+        Parser varargs = new Parser(tokens);
+        boolean matched = true;
+        long before = bean.getThreadAllocatedBytes(thread);
+        for (int i = 0; i < statements; i++) {
+            matched &= varargs.match(new Object[] {Token.Type.IDENTIFIER});
+            matched &= varargs.match(new Object[] {"="});
+            matched &= varargs.match(new Object[] {Token.Type.IDENTIFIER});
+            matched &= varargs.match(new Object[] {";"});
+        }
+        long varargsBytes = bean.getThreadAllocatedBytes(thread) - before;
+        Parser overloads = new Parser(tokens);
+        before = bean.getThreadAllocatedBytes(thread);
+        for (int i = 0; i < statements; i++) {
+            matched &= overloads.match(Token.Type.IDENTIFIER);
+            matched &= overloads.match("=");
+            matched &= overloads.match(Token.Type.IDENTIFIER);
+            matched &= overloads.match(";");
+        }
+        long overloadBytes = bean.getThreadAllocatedBytes(thread) - before;
+        Assertions.assertTrue(matched);
+        TokenBuffer function = new Lexer("FUN main() DO\n" + String.join("", Collections.nCopies(statements, "    x = y;\n")) + "END").lexBuffer();
+        before = bean.getThreadAllocatedBytes(thread);
+        new Parser(function).parseSource();
+        long parseBytes = bean.getThreadAllocatedBytes(thread) - before;
+        System.out.printf("varargs match:     %d bytes/statement%n", varargsBytes / statements);
+        System.out.printf("fixed-arity match: %d bytes/statement%n", overloadBytes / statements);
+        System.out.printf("parse:             %d bytes/statement%n", parseBytes / statements);
+    }
+
+    /**
+     * Parsing from a {@link TokenBuffer} reads the arrays directly, so the
+     * parser doesn't create a token or literal for each peek or match, and
+     * repeated names are the buffer's interned strings.
+     */
+    @Test
+    void testBufferLiterals() {
+        int statements = 100;
+        String input = "FUN main() DO\n" + String.join("", Collections.nCopies(statements, "    x = y;\n")) + "END";
+        TokenBuffer tokens = new Lexer(input).lexBuffer();
+        Ast.Source source = new Parser(tokens).parseSource();
+        Assertions.assertEquals(new Parser(new Lexer(input).lex()).parseSource(), source);
+        List<Ast.Statement> body = source.getFunctions().get(0).getStatements();
+        Assertions.assertEquals(statements, body.size());
+        String x = ((Ast.Expression.Access) ((Ast.Statement.Assignment) body.get(0)).getReceiver()).getName();
+        String y = ((Ast.Expression.Access) ((Ast.Statement.Assignment) body.get(0)).getValue()).getName();
+        for (Ast.Statement statement : body) {
+            Assertions.assertSame(x, ((Ast.Expression.Access) ((Ast.Statement.Assignment) statement).getReceiver()).getName());
+            Assertions.assertSame(y, ((Ast.Expression.Access) ((Ast.Statement.Assignment) statement).getValue()).getName());
+        }
+    }
+
     /**
      * Standard test function. If expected is null, a ParseException is expected
      * to be thrown (not used in the provided tests).